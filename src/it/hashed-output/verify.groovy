@@ -0,0 +1,18 @@
+expected = """#header {
+  color: #4d926f;
+}
+h2 {
+  color: #4d926f;
+}
+
+"""
+
+manifest = new File(basedir, "target/manifest.json")
+assert manifest.exists()
+
+matcher = manifest.getText() =~ /"test.css": "(test\.[0-9a-f]{8}\.css)"/
+assert matcher.find()
+
+css = new File(basedir, "target/" + matcher.group(1))
+assert css.exists()
+assert css.getText().equals(expected)
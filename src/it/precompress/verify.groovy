@@ -0,0 +1,18 @@
+import java.util.zip.GZIPInputStream
+
+expected = """#header {
+  color: #4d926f;
+}
+h2 {
+  color: #4d926f;
+}
+
+"""
+
+css = new File(basedir, "target/test.css")
+assert css.exists()
+assert css.getText().equals(expected)
+
+gz = new File(basedir, "target/test.css.gz")
+assert gz.exists()
+assert new GZIPInputStream(new FileInputStream(gz)).getText().equals(expected)
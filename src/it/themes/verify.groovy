@@ -0,0 +1,27 @@
+expectedRed = """#header {
+  color: #cc0000;
+}
+h2 {
+  color: #cc0000;
+}
+
+"""
+
+red = new File(basedir, "target/test-red.css")
+assert red.exists()
+assert red.getText().equals(expectedRed)
+
+expectedBlue = """#header {
+  color: #0000cc;
+}
+h2 {
+  color: #0000cc;
+}
+
+"""
+
+blue = new File(basedir, "target/test-blue.css")
+assert blue.exists()
+assert blue.getText().equals(expectedBlue)
+
+assert !new File(basedir, "target/test.css").exists()
@@ -0,0 +1,18 @@
+expected = """#header {
+  color: #4d926f;
+}
+h2 {
+  color: #4d926f;
+}
+
+"""
+
+css = new File(basedir, "target/test.css")
+assert css.exists()
+assert css.getText().equals(expected)
+
+expectedMin = """#header{color:#4d926f}h2{color:#4d926f}"""
+
+minCss = new File(basedir, "target/test.min.css")
+assert minCss.exists()
+assert minCss.getText().trim().equals(expectedMin)
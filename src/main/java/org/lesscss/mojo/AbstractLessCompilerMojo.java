@@ -0,0 +1,167 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+
+/**
+ * Abstract class which provides the configuration properties and methods of the goals running the LESS compiler.
+ */
+public abstract class AbstractLessCompilerMojo extends AbstractLessCssMojo {
+
+	/**
+	 * When <code>true</code> the LESS compiler will compress the CSS stylesheets.
+	 * 
+	 * @parameter expression="${lesscss.compress}" default-value="false"
+	 */
+	protected boolean compress;
+
+	/**
+	 * The character encoding the LESS compiler will use for writing the CSS stylesheets.
+	 * 
+	 * @parameter expression="${lesscss.encoding}" default-value="${project.build.sourceEncoding}"
+	 */
+	protected String encoding;
+
+	/**
+	 * The location of the LESS JavasSript file.
+	 * 
+	 * @parameter
+	 */
+	protected File lessJs;
+
+	/**
+	 * The location of the NodeJS executable.
+	 *
+	 * @parameter
+	 */
+	protected String nodeExecutable;
+
+	/**
+	 * Whether the NodeJS compiler keeps the less.js sources as a single bundle with its V8 code cache in the
+	 * cacheDirectory, so each node process starts without resolving, parsing and compiling them. Off by default, as
+	 * the cache is specific to the node version and is written into the cacheDirectory by node itself.
+	 *
+	 * @parameter expression="${lesscss.nodeCodeCache}" default-value="false"
+	 */
+	protected boolean nodeCodeCache;
+
+	/**
+	 * The number of threads used to compile LESS sources, themes and variants in parallel.
+	 *
+	 * @parameter expression="${lesscss.threads}" default-value="1"
+	 */
+	protected int threads = 1;
+
+	/**
+	 * The number of milliseconds a LESS source may take to compile, 0 for no limit. A compilation which takes longer
+	 * fails the LESS source: the NodeJS process is killed, or the Rhino compiler is aborted and discarded.
+	 *
+	 * @parameter expression="${lesscss.compileTimeout}" default-value="0"
+	 */
+	protected long compileTimeout;
+
+	/**
+	 * The number of compilations after which a Rhino compiler is replaced by a fresh one, 0 for no limit. Bounds the
+	 * heap used by long watch sessions. The fresh compiler is warmed up during the last compilation of the current one.
+	 * The NodeJS compiler starts a process per compilation and needs no recycling.
+	 *
+	 * @parameter expression="${lesscss.recycleAfter}" default-value="0"
+	 */
+	protected int recycleAfter;
+
+	/**
+	 * The percentage of the maximum heap retained after garbage collection above which the Rhino compilers are
+	 * replaced by fresh ones, 0 for no limit. They are replaced once per crossing of the threshold, and keep compiling
+	 * until their replacements are warm.
+	 *
+	 * @parameter expression="${lesscss.recycleHeapPercent}" default-value="0"
+	 */
+	protected int recycleHeapPercent;
+
+	/**
+	 * Creates the pool of LESS compilers used by the worker threads.
+	 */
+	protected LessCompilerPool createLessCompilerPool() {
+		if (compileTimeout > 0 && nodeExecutable == null && !CompileDeadline.install()) {
+			getLog().warn("The compileTimeout cannot be enforced, another Rhino context factory is installed");
+		}
+		LessCompilerPool pool = new LessCompilerPool(new LessCompilerPool.Factory() {
+			public Object createLessCompiler(boolean compress) throws MojoExecutionException {
+				return initLessCompiler(compress);
+			}
+		}, threads, compileTimeout);
+		pool.setRecycling(recycleAfter, recycleHeapPercent);
+		return pool;
+	}
+
+	protected Object initLessCompiler(boolean compress) throws MojoExecutionException {
+		if (nodeExecutable != null) {
+			NodeJsLessCompiler lessCompiler;
+			try {
+				lessCompiler = new NodeJsLessCompiler(nodeExecutable, compress, encoding, getLog());
+			} catch (IOException e) {
+				throw new MojoExecutionException(e.getMessage(), e);
+			}
+			lessCompiler.setTimeout(compileTimeout);
+			if (nodeCodeCache && cacheDirectory != null) {
+				lessCompiler.setCodeCache(new File(cacheDirectory, "node-code-cache"));
+			}
+			if (lessJs != null) {
+				throw new MojoExecutionException(
+						"Custom LESS JavaScript is not currently supported when using nodeExecutable");
+			}
+			return lessCompiler;
+		} else {
+			LessCompiler lessCompiler = new LessCompiler();
+			lessCompiler.setCompress(compress);
+			lessCompiler.setEncoding(encoding);
+			if (lessJs != null) {
+				try {
+					lessCompiler.setLessJs(lessJs.toURI().toURL());
+				} catch (MalformedURLException e) {
+					throw new MojoExecutionException(
+							"Error while loading LESS JavaScript: " + lessJs.getAbsolutePath(), e);
+				}
+			}
+			return lessCompiler;
+		}
+	}
+
+	/**
+	 * Compiles the LESS source with a compiler created by {@link #initLessCompiler(boolean)}.
+	 */
+	protected static String compile(Object lessCompiler, LessSource lessSource) throws IOException, LessException,
+			InterruptedException {
+		if (lessCompiler instanceof LessCompiler) {
+			return ((LessCompiler) lessCompiler).compile(lessSource);
+		} else {
+			return ((NodeJsLessCompiler) lessCompiler).compile(lessSource);
+		}
+	}
+
+	protected static void close(Object lessCompiler) {
+		if (lessCompiler instanceof NodeJsLessCompiler) {
+			((NodeJsLessCompiler) lessCompiler).close();
+		}
+	}
+}
@@ -15,9 +15,34 @@
 package org.lesscss.mojo;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
+import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
+import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
+import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.Scanner;
+import org.lesscss.FileResource;
+import org.lesscss.LessSource;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
 /**
@@ -52,18 +77,400 @@ public abstract class AbstractLessCssMojo extends AbstractMojo {
 	 */
 	protected String[] excludes = new String[] {};
 
+	/**
+	 * The directory where the plugin keeps data between builds, like the imports of the LESS sources.
+	 * 
+	 * @parameter expression="${lesscss.cacheDirectory}" default-value="${project.build.directory}/lesscss-cache"
+	 */
+	protected File cacheDirectory;
+
+	/**
+	 * Whether to look up imports which do not exist relative to the importing LESS source in the dependency archives
+	 * of the project, e.g. <code>@import "webjars/bootstrap/less/bootstrap.less";</code> for the Bootstrap WebJar.
+	 * <p>
+	 * The compile scope dependencies are only resolved when this is enabled, when the first LESS source is read. They
+	 * are resolved from the repositories, so in a reactor build the modules they depend on need to be installed.
+	 * 
+	 * @parameter expression="${lesscss.importFromDependencies}" default-value="false"
+	 */
+	protected boolean importFromDependencies;
+
+	/**
+	 * @parameter expression="${project}"
+	 * @readonly
+	 */
+	protected MavenProject project;
+
+	/** @component */
+	private ArtifactFactory artifactFactory;
+
+	/** @component */
+	private ArtifactResolver artifactResolver;
+
+	/** @component */
+	private ArtifactMetadataSource artifactMetadataSource;
+
+	/**
+	 * @parameter expression="${localRepository}"
+	 * @readonly
+	 */
+	private ArtifactRepository localRepository;
+
+	/**
+	 * @parameter expression="${project.remoteArtifactRepositories}"
+	 * @readonly
+	 */
+	private List<ArtifactRepository> remoteRepositories;
+
+	/** Whether the dependency archives have been resolved, see {@link #getDependencyArchives()}. */
+	private boolean dependenciesResolved;
+
+	/** The LESS and CSS files of the dependency archives, see {@link #getDependencyArchives()}. */
+	private DependencyArchives dependencyArchives;
+
+	/** The imports of the LESS sources by source directory, see {@link #getImportIndex()}. */
+	private final Map<File, ImportIndex> importIndexes = new HashMap<File, ImportIndex>();
+
+	/** The result of the last scan by source directory, see {@link #scanSourceDirectory()}. */
+	private final Map<File, ScanCache> scanCaches = new HashMap<File, ScanCache>();
+
 	/**
 	 * Scans for the LESS sources that should be compiled.
+	 * <p>
+	 * In an incremental build (e.g. on save in the IDE) only the LESS sources affected by the changed and deleted
+	 * files are returned, as far as they are known by the import index. Other builds scan the whole source directory.
 	 * 
 	 * @return The list of LESS sources.
 	 */
 	protected String[] getIncludedFiles() {
+		return getIncludedFiles(sourceDirectory, includes, excludes);
+	}
+
+	/**
+	 * Scans for the LESS sources of the given source directory that should be compiled, see
+	 * {@link #getIncludedFiles()}.
+	 */
+	protected String[] getIncludedFiles(File sourceDirectory, String[] includes, String[] excludes) {
+		if (!buildContext.isIncremental()) {
+			// a full build scans the whole source directory anyway, also in the IDE
+			return scanSourceDirectory(sourceDirectory, includes, excludes);
+		}
+		String[] affectedFiles = getAffectedFiles(sourceDirectory, includes, excludes);
+		if (affectedFiles != null) {
+			return affectedFiles;
+		}
 		Scanner scanner = buildContext.newScanner(sourceDirectory, true);
 		scanner.setIncludes(includes);
 		scanner.setExcludes(excludes);
 		scanner.scan();
 		return scanner.getIncludedFiles();
 	}
+
+	/**
+	 * Scans the source directory without descending into excluded directories, unless none of the directories scanned
+	 * last time has changed since.
+	 */
+	private String[] scanSourceDirectory(File sourceDirectory, String[] includes, String[] excludes) {
+		String key = sourceDirectory.getAbsolutePath() + ":" + Arrays.toString(includes) + ":"
+				+ Arrays.toString(excludes);
+		ScanCache scanCache = scanCaches.get(sourceDirectory);
+		if (scanCache == null) {
+			File file = getCacheFile(sourceDirectory, "scan");
+			try {
+				scanCache = new ScanCache(file);
+				scanCaches.put(sourceDirectory, scanCache);
+			} catch (IOException e) {
+				getLog().warn("Could not load the LESS scan cache " + file + ": " + e.getMessage());
+				return new SourceScanner(sourceDirectory, includes, excludes).scan();
+			}
+		}
+		String[] files = scanCache.get(sourceDirectory, key);
+		if (files != null) {
+			getLog().debug("Source directory not modified, reusing the last scan");
+			return files;
+		}
+
+		long scanned = System.currentTimeMillis();
+		SourceScanner scanner = new SourceScanner(sourceDirectory, includes, excludes);
+		files = scanner.scan();
+		scanCache.put(key, scanned, scanner.getDirectories(), files);
+		try {
+			scanCache.save();
+		} catch (IOException e) {
+			getLog().warn("Could not write the LESS scan cache: " + e.getMessage());
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the LESS sources affected by the changes of an incremental build, or <code>null</code> when the
+	 * imports of the LESS sources are not known yet and the whole source directory has to be scanned.
+	 */
+	private String[] getAffectedFiles(File sourceDirectory, String[] includes, String[] excludes) {
+		ImportIndex index = getImportIndex(sourceDirectory);
+		if (index == null || index.isEmpty()) {
+			return null;
+		}
+
+		Scanner deleteScanner = buildContext.newDeleteScanner(sourceDirectory);
+		deleteScanner.scan();
+		Scanner changeScanner = buildContext.newScanner(sourceDirectory, false);
+		changeScanner.scan();
+		Set<String> changedPaths = new LinkedHashSet<String>();
+		for (String file : deleteScanner.getIncludedFiles()) {
+			String path = ImportGraph.toPath(file);
+			changedPaths.add(path);
+			index.remove(path);
+		}
+		for (String file : changeScanner.getIncludedFiles()) {
+			changedPaths.add(ImportGraph.toPath(file));
+		}
+		if (changedPaths.isEmpty()) {
+			return new String[0];
+		}
+
+		// new or changed LESS sources matching the includes, and the indexed ones importing a changed file
+		Scanner scanner = buildContext.newScanner(sourceDirectory, false);
+		scanner.setIncludes(includes);
+		scanner.setExcludes(excludes);
+		scanner.scan();
+		Set<String> files = new LinkedHashSet<String>(Arrays.asList(scanner.getIncludedFiles()));
+		for (String root : index.getAffectedRoots(changedPaths)) {
+			if (new File(sourceDirectory, root).exists()) {
+				files.add(root.replace('/', File.separatorChar));
+			}
+		}
+		if (getLog().isDebugEnabled()) {
+			getLog().debug("changed files = " + changedPaths + ", affected LESS sources = " + files);
+		}
+		return files.toArray(new String[files.size()]);
+	}
+
+	/**
+	 * Returns the index of the imports of the LESS sources in the source directory, loaded from the cache directory
+	 * once per execution. In the IDE the index is kept by the build context between builds.
+	 * 
+	 * @return The index, or <code>null</code> if it cannot be loaded.
+	 */
+	protected ImportIndex getImportIndex() {
+		return getImportIndex(sourceDirectory);
+	}
+
+	/**
+	 * Returns the index of the imports of the LESS sources in the given source directory, see
+	 * {@link #getImportIndex()}.
+	 */
+	protected ImportIndex getImportIndex(File sourceDirectory) {
+		ImportIndex importIndex = importIndexes.get(sourceDirectory);
+		if (importIndex == null) {
+			String key = ImportIndex.class.getName() + ":" + sourceDirectory.getAbsolutePath();
+			importIndex = (ImportIndex) buildContext.getValue(key);
+			if (importIndex == null) {
+				File file = getCacheFile(sourceDirectory, "imports");
+				try {
+					importIndex = new ImportIndex(file);
+				} catch (IOException e) {
+					getLog().warn("Could not load the LESS import index " + file + ": " + e.getMessage());
+					return null;
+				}
+				buildContext.setValue(key, importIndex);
+			}
+			importIndexes.put(sourceDirectory, importIndex);
+		}
+		return importIndex;
+	}
+
+	/**
+	 * Returns the file in the cache directory with the given prefix for the source directory.
+	 * 
+	 * @return The file, or <code>null</code> if there is no cache directory.
+	 */
+	protected File getCacheFile(String prefix) {
+		return getCacheFile(sourceDirectory, prefix);
+	}
+
+	/**
+	 * Returns the file in the cache directory with the given prefix for the given source directory.
+	 * 
+	 * @return The file, or <code>null</code> if there is no cache directory.
+	 */
+	protected File getCacheFile(File sourceDirectory, String prefix) {
+		if (cacheDirectory == null) {
+			return null;
+		}
+		return new File(cacheDirectory, prefix + "-" + Integer.toHexString(sourceDirectory.getAbsolutePath().hashCode())
+				+ ".properties");
+	}
+
+	/**
+	 * Reads the LESS source and resolves its imports, in the dependency archives when they do not exist relative to
+	 * the importing LESS source.
+	 */
+	protected LessSource newLessSource(File input) throws IOException {
+		DependencyArchives archives = getDependencyArchives();
+		if (archives == null) {
+			return new LessSource(input);
+		}
+		return new LessSource(archives.withFallback(new FileResource(input)));
+	}
+
+	/**
+	 * Returns the dependency archives to resolve imports in, resolving the compile scope dependencies of the project on
+	 * the first call. They are indexed when the first import is looked up.
+	 * 
+	 * @return The archives, or <code>null</code> if there are none or imports from dependencies are disabled.
+	 */
+	private synchronized DependencyArchives getDependencyArchives() throws IOException {
+		if (!importFromDependencies || dependenciesResolved) {
+			return dependencyArchives;
+		}
+		List<File> archives = new ArrayList<File>();
+		for (Artifact artifact : resolveDependencies()) {
+			File file = artifact.getFile();
+			if (file != null && file.isFile() && (file.getName().endsWith(".jar") || file.getName().endsWith(".zip"))) {
+				archives.add(file);
+			}
+		}
+		dependenciesResolved = true;
+		if (!archives.isEmpty()) {
+			File cacheFile = cacheDirectory == null ? null : new File(cacheDirectory, "dependencies.properties");
+			dependencyArchives = new DependencyArchives(archives, cacheFile, getLog());
+		}
+		return dependencyArchives;
+	}
+
+	/**
+	 * Resolves the compile scope dependencies of the project and their transitive dependencies.
+	 * The goals do not require Maven to resolve them, so builds which do not import from dependencies never do.
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<Artifact> resolveDependencies() throws IOException {
+		ScopeArtifactFilter compileScope = new ScopeArtifactFilter(Artifact.SCOPE_COMPILE);
+		Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+		try {
+			for (Dependency dependency : (List<Dependency>) project.getDependencies()) {
+				Artifact artifact = artifactFactory.createDependencyArtifact(dependency.getGroupId(),
+						dependency.getArtifactId(), VersionRange.createFromVersionSpec(dependency.getVersion()),
+						dependency.getType(), dependency.getClassifier(), dependency.getScope());
+				if (!compileScope.include(artifact)) {
+					continue;
+				}
+				if (!dependency.getExclusions().isEmpty()) {
+					List<String> exclusions = new ArrayList<String>();
+					for (Exclusion exclusion : (List<Exclusion>) dependency.getExclusions()) {
+						exclusions.add(exclusion.getGroupId() + ":" + exclusion.getArtifactId());
+					}
+					artifact.setDependencyFilter(new ExcludesArtifactFilter(exclusions));
+				}
+				artifacts.add(artifact);
+			}
+			return artifactResolver.resolveTransitively(artifacts, project.getArtifact(), localRepository,
+					remoteRepositories, artifactMetadataSource, compileScope).getArtifacts();
+		} catch (InvalidVersionSpecificationException e) {
+			throw dependencyError(e);
+		} catch (ArtifactResolutionException e) {
+			throw dependencyError(e);
+		} catch (ArtifactNotFoundException e) {
+			throw dependencyError(e);
+		}
+	}
+
+	private static IOException dependencyError(Exception e) {
+		IOException error = new IOException("Cannot resolve the dependencies to import LESS sources from: "
+				+ e.getMessage());
+		error.initCause(e);
+		return error;
+	}
+
+	/**
+	 * Closes the dependency archives opened to read imports.
+	 */
+	protected void closeDependencyArchives() {
+		if (dependencyArchives != null) {
+			dependencyArchives.close();
+		}
+	}
+
+	/**
+	 * Records the direct and indirect imports of the LESS source in the import index.
+	 * 
+	 * @return The import graph of the LESS source.
+	 */
+	protected ImportGraph indexImports(String file, LessSource lessSource) {
+		return indexImports(sourceDirectory, file, lessSource);
+	}
+
+	/**
+	 * Records the direct and indirect imports of the LESS source in the import index of the given source directory.
+	 * 
+	 * @return The import graph of the LESS source.
+	 */
+	protected ImportGraph indexImports(File sourceDirectory, String file, LessSource lessSource) {
+		String path = ImportGraph.toPath(file);
+		ImportGraph graph = new ImportGraph();
+		graph.add(lessSource, path);
+		ImportIndex index = getImportIndex(sourceDirectory);
+		if (index != null) {
+			Set<String> imports = graph.getTransitiveImports(path);
+			index.put(path, imports);
+			if (importFromDependencies) {
+				recordArchivedImports(index, graph, imports);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Records the dependency archive entries the imports were found in, so their modification time can be checked
+	 * without reading the importing LESS source.
+	 */
+	private void recordArchivedImports(ImportIndex index, ImportGraph graph, Set<String> imports) {
+		try {
+			DependencyArchives archives = getDependencyArchives();
+			for (String importPath : imports) {
+				String name = graph.getSourceName(importPath);
+				if (archives != null && name != null && archives.lastModified(name) > 0) {
+					index.putArchivedName(importPath, name);
+				}
+			}
+		} catch (IOException e) {
+			// not recorded, the importing LESS source is read again by the next build
+		}
+	}
+
+	/**
+	 * Returns the last modification time of an import indexed by {@link #indexImports(File, String, LessSource)}: of
+	 * the file in the source directory, or of the dependency archive entry it was found in.
+	 * 
+	 * @return The time, or 0 if the import no longer exists.
+	 */
+	protected long getImportLastModified(File sourceDirectory, ImportIndex index, String importPath) {
+		long lastModified = new File(sourceDirectory, importPath).lastModified();
+		String name = lastModified == 0L && importFromDependencies ? index.getArchivedName(importPath) : null;
+		if (name != null) {
+			try {
+				DependencyArchives archives = getDependencyArchives();
+				lastModified = archives == null ? 0L : archives.lastModified(name);
+			} catch (IOException e) {
+				// reading the importing LESS source reports the failure
+				lastModified = 0L;
+			}
+		}
+		return lastModified;
+	}
+
+	/**
+	 * Writes the import indexes of the source directories to the cache directory if they have been modified.
+	 */
+	protected void saveImportIndex() throws MojoExecutionException {
+		for (ImportIndex importIndex : importIndexes.values()) {
+			try {
+				importIndex.save();
+			} catch (IOException e) {
+				throw new MojoExecutionException("Error while writing the LESS import index", e);
+			}
+		}
+	}
 	
 	/**
 	 * Whether to skip plugin execution. 
@@ -0,0 +1,148 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * JSON manifest which maps the logical names of the compiled CSS stylesheets to their content hashed names, e.g.
+ * <code>{"main.css": "main.5d41402a.css"}</code>. Names are relative to the output directory.
+ */
+class AssetManifest {
+
+	private static final int HASH_LENGTH = 8;
+
+	private final File file;
+
+	private final File outputDirectory;
+
+	private final Map<String, String> entries = new TreeMap<String, String>();
+
+	/** The hashed names replaced by newer ones since their stylesheets were last deleted. */
+	private final Set<String> replaced = new TreeSet<String>();
+
+	private boolean modified;
+
+	AssetManifest(File file, File outputDirectory) throws IOException {
+		this.file = file;
+		this.outputDirectory = outputDirectory;
+		if (file.exists()) {
+			try {
+				entries.putAll(Json.parseObject(FileUtils.readFileToString(file, "UTF-8")));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid asset manifest " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns the output file of the logical name written by a previous compilation, or <code>null</code> if unknown.
+	 */
+	synchronized File get(String logicalName) {
+		String name = entries.get(logicalName.replace(File.separatorChar, '/'));
+		return name == null ? null : new File(outputDirectory, name);
+	}
+
+	synchronized void put(String logicalName, String name) {
+		logicalName = logicalName.replace(File.separatorChar, '/');
+		name = name.replace(File.separatorChar, '/');
+		String previous = entries.put(logicalName, name);
+		if (!name.equals(previous)) {
+			modified = true;
+			if (previous != null && !previous.equals(logicalName)) {
+				replaced.add(previous);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the hashed CSS stylesheets, and their precompressed siblings, which have been replaced by newer ones and
+	 * are no longer referred to. To be called once the manifest refers to the new ones.
+	 *
+	 * @return The deleted files.
+	 */
+	synchronized List<File> deleteReplaced() {
+		List<File> deleted = new ArrayList<File>();
+		for (String name : replaced) {
+			if (!entries.containsValue(name)) {
+				File output = new File(outputDirectory, name);
+				for (File file : new File[] { output, Precompressor.getGzipFile(output) }) {
+					if (FileUtils.deleteQuietly(file)) {
+						deleted.add(file);
+					}
+				}
+			}
+		}
+		replaced.clear();
+		return deleted;
+	}
+
+	/**
+	 * Writes the manifest if it has been modified.
+	 *
+	 * @return <code>true</code> if the manifest has been written.
+	 */
+	synchronized boolean write() throws IOException {
+		if (!modified) {
+			return false;
+		}
+		FileUtils.writeStringToFile(file, Json.writeObject(entries), "UTF-8");
+		modified = false;
+		return true;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the hash of the CSS stylesheet file used in hashed output file names.
+	 */
+	static String hash(File css) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			InputStream in = new FileInputStream(css);
+			try {
+				byte[] buffer = new byte[8192];
+				for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+					digest.update(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+			byte[] hash = digest.digest();
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < HASH_LENGTH / 2; i++) {
+				sb.append(String.format("%02x", Integer.valueOf(hash[i] & 0xff)));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not supported by the JVM", e);
+		}
+	}
+}
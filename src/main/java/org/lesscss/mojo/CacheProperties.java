@@ -0,0 +1,143 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * A properties file in the cache directory, which keeps the state of the LESS sources and CSS stylesheets between
+ * builds. It is only written if a value has changed, and deleted once it is empty.
+ */
+class CacheProperties {
+
+	private final File file;
+
+	private final String comment;
+
+	private final Map<String, String> values = new TreeMap<String, String>();
+
+	private boolean modified;
+
+	/**
+	 * Creates the properties, loading them from the file if it exists.
+	 *
+	 * @param file
+	 *            The file to persist the properties to, or <code>null</code> to keep them in memory only.
+	 * @param comment
+	 *            Describes the properties in the header of the file.
+	 */
+	CacheProperties(File file, String comment) throws IOException {
+		this.file = file;
+		this.comment = comment;
+		if (file != null && file.exists()) {
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+				values.put((String) entry.getKey(), (String) entry.getValue());
+			}
+		}
+	}
+
+	synchronized String get(String key) {
+		return values.get(key);
+	}
+
+	/**
+	 * Returns the number of the key, or <code>null</code> if it is unknown or corrupt and has to be recorded again.
+	 */
+	synchronized Long getLong(String key) {
+		String value = values.get(key);
+		try {
+			return value == null ? null : Long.valueOf(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a copy of all properties, sorted by key.
+	 */
+	synchronized Map<String, String> getAll() {
+		return new TreeMap<String, String>(values);
+	}
+
+	synchronized void put(String key, String value) {
+		if (!value.equals(values.put(key, value))) {
+			modified = true;
+		}
+	}
+
+	synchronized void putLong(String key, long value) {
+		put(key, Long.toString(value));
+	}
+
+	synchronized void remove(String key) {
+		if (values.remove(key) != null) {
+			modified = true;
+		}
+	}
+
+	/**
+	 * Replaces all properties, e.g. by an index built again.
+	 */
+	synchronized void replaceAll(Map<String, String> properties) {
+		if (!values.equals(properties)) {
+			values.clear();
+			values.putAll(properties);
+			modified = true;
+		}
+	}
+
+	/**
+	 * Writes the properties to their file if they have been modified.
+	 */
+	synchronized void save() throws IOException {
+		if (file == null || !modified) {
+			return;
+		}
+		if (values.isEmpty()) {
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Cannot delete " + file);
+			}
+			modified = false;
+			return;
+		}
+		Properties properties = new Properties();
+		properties.putAll(values);
+		if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+			throw new IOException("Cannot create cache directory " + file.getParentFile());
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			properties.store(out, comment);
+		} finally {
+			out.close();
+		}
+		modified = false;
+	}
+}
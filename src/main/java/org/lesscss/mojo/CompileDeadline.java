@@ -0,0 +1,90 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Rhino context factory which aborts the LESS compilation of the current thread once its deadline has passed.
+ * <p>
+ * Rhino cannot be interrupted, but it calls an instruction observer every {@link #INSTRUCTION_THRESHOLD} instructions
+ * of the contexts created by this factory. The observer throws {@link Expired}, an {@link Error} so the
+ * <code>catch (Exception)</code> blocks of the LESS compiler do not swallow it.
+ */
+class CompileDeadline extends ContextFactory {
+
+	private static final int INSTRUCTION_THRESHOLD = 10000;
+
+	private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<Long>();
+
+	private static boolean installed;
+
+	/**
+	 * Thrown into the LESS compiler when the deadline of the compilation has passed.
+	 */
+	static class Expired extends Error {
+
+		private static final long serialVersionUID = 1L;
+
+		Expired(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Installs the factory as the global Rhino context factory, which must happen before the LESS compilers are
+	 * initialized, so their scripts are compiled with instruction counting.
+	 *
+	 * @return <code>false</code> if another global context factory has been installed already.
+	 */
+	static synchronized boolean install() {
+		if (!installed) {
+			if (ContextFactory.hasExplicitGlobal()) {
+				return ContextFactory.getGlobal() instanceof CompileDeadline;
+			}
+			ContextFactory.initGlobal(new CompileDeadline());
+			installed = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Starts the deadline of a compilation on the current thread.
+	 */
+	static void begin(long timeoutMillis) {
+		DEADLINE.set(Long.valueOf(System.nanoTime() + timeoutMillis * 1000000L));
+	}
+
+	static void end() {
+		DEADLINE.remove();
+	}
+
+	@Override
+	protected Context makeContext() {
+		Context cx = super.makeContext();
+		cx.setInstructionObserverThreshold(INSTRUCTION_THRESHOLD);
+		return cx;
+	}
+
+	@Override
+	protected void observeInstructionCount(Context cx, int instructionCount) {
+		Long deadline = DEADLINE.get();
+		if (deadline != null && System.nanoTime() - deadline.longValue() > 0) {
+			end();
+			throw new Expired("Compilation exceeded its deadline");
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The compile durations of the LESS sources in previous builds, by path relative to the source directory. They are
+ * used to schedule the longest compilations first.
+ */
+class CompileHistory {
+
+	/** The compile time per byte of LESS source and imports assumed before any duration has been recorded. */
+	static final double DEFAULT_MILLIS_PER_BYTE = 0.001;
+
+	private final CacheProperties durations;
+
+	/**
+	 * Creates the history, loading it from the file if it exists.
+	 *
+	 * @param file
+	 *            The file to persist the history to, or <code>null</code> to keep it in memory only.
+	 */
+	CompileHistory(File file) throws IOException {
+		durations = new CacheProperties(file, "LESS compile durations in milliseconds by source");
+	}
+
+	/**
+	 * Returns the duration of the last compilation of the LESS source in milliseconds, or <code>null</code> if unknown.
+	 */
+	Long getDuration(String root) {
+		return durations.getLong(root);
+	}
+
+	void put(String root, long millis) {
+		durations.putLong(root, millis);
+	}
+
+	/**
+	 * Writes the history to its file if it has been modified.
+	 */
+	void save() throws IOException {
+		durations.save();
+	}
+}
@@ -16,12 +16,28 @@ package org.lesscss.mojo;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.codehaus.plexus.util.StringUtils;
-import org.lesscss.LessCompiler;
 import org.lesscss.LessException;
 import org.lesscss.LessSource;
 import org.sonatype.plexus.build.incremental.BuildContext;
@@ -33,7 +49,7 @@ import org.sonatype.plexus.build.incremental.BuildContext;
  * @goal compile
  * @phase process-sources
  */
-public class CompileMojo extends AbstractLessCssMojo {
+public class CompileMojo extends AbstractLessCompilerMojo {
 
 	/**
 	 * The directory for compiled CSS stylesheets.
@@ -44,18 +60,30 @@ public class CompileMojo extends AbstractLessCssMojo {
 	protected File outputDirectory;
 
 	/**
-	 * When <code>true</code> the LESS compiler will compress the CSS stylesheets.
+	 * Several source directories to compile in one execution, each to its own output directory, instead of the
+	 * sourceDirectory. The LESS compilers are shared by all of them.
 	 * 
-	 * @parameter expression="${lesscss.compress}" default-value="false"
+	 * @parameter
 	 */
-	private boolean compress;
+	private SourceMapping[] sourceMappings;
 
 	/**
 	 * When <code>true</code> the plugin will watch for changes in LESS files and compile if it detects one.
 	 * 
 	 * @parameter expression="${lesscss.watch}" default-value="false"
 	 */
-	protected boolean watch=false;
+	protected volatile boolean watch=false;
+
+	/**
+	 * When <code>true</code> watch mode runs in the background and the build continues, e.g. with
+	 * <code>jetty:run</code> in the same Maven invocation. Watching stops when the build exits.
+	 * 
+	 * @parameter expression="${lesscss.detachWatch}" default-value="false"
+	 */
+	private boolean detachWatch;
+
+	/** How long the exiting JVM waits for a detached watch to close its LESS compilers, in milliseconds. */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
 
 	/**
 	 * When <code>true</code> the plugin will watch for changes in LESS files and compile if it detects one.
@@ -65,11 +93,13 @@ public class CompileMojo extends AbstractLessCssMojo {
 	private int watchInterval=1000;
 
 	/**
-	 * The character encoding the LESS compiler will use for writing the CSS stylesheets.
+	 * The port of the local HTTP server started in watch mode, which serves the latest compiled CSS stylesheets from
+	 * memory and notifies the browsers including <code>http://localhost:port/livereload.js</code> of every
+	 * recompiled stylesheet. The server is not started when 0.
 	 * 
-	 * @parameter expression="${lesscss.encoding}" default-value="${project.build.sourceEncoding}"
+	 * @parameter expression="${lesscss.devServerPort}" default-value="0"
 	 */
-	private String encoding;
+	private int devServerPort;
 
 	/**
 	 * When <code>true</code> forces the LESS compiler to always compile the LESS sources. By default LESS sources are only compiled when modified (including imports) or the CSS stylesheet does not exists.
@@ -79,27 +109,151 @@ public class CompileMojo extends AbstractLessCssMojo {
 	private boolean force;
 
 	/**
-	 * The location of the LESS JavasSript file.
-	 * 
+	 * The format of the output file names.
+	 *
 	 * @parameter
 	 */
-	private File lessJs;
+	private String outputFileFormat;
 
 	/**
-	 * The location of the NodeJS executable.
+	 * The CSS stylesheets to generate from each LESS source, e.g. a plain and a compressed one. All variants are
+	 * generated from a single scan and staleness check, and the NodeJS compiler renders them from a single parse.
+	 * When set the variants replace the stylesheet configured by <code>compress</code> and
+	 * <code>outputFileFormat</code>.
 	 *
 	 * @parameter
 	 */
-	private String nodeExecutable;
-        
+	private OutputVariant[] variants;
+
 	/**
-	 * The format of the output file names.
+	 * The themes to generate from each LESS source. A theme overrides LESS variables and is written to its own CSS
+	 * stylesheet, named by its <code>outputFileFormat</code> (default <code>{fileName}-{theme}.css</code>). When set
+	 * the themes replace the stylesheets configured by <code>variants</code>, <code>compress</code> and
+	 * <code>outputFileFormat</code>.
 	 *
 	 * @parameter
 	 */
-	private String outputFileFormat;
-        
-        private static final String FILE_NAME_FORMAT_PARAMETER_REGEX = "\\{fileName\\}";
+	private Theme[] themes;
+
+	/**
+	 * The precompressed siblings to write next to each compiled CSS stylesheet, e.g. <code>gzip</code> for
+	 * <code>main.css.gz</code>. They are compressed while the stylesheet is written, from the CSS the compiler holds in
+	 * memory, and only for the stylesheets compiled by this execution. Brotli (<code>br</code>) is accepted but skipped
+	 * with a warning, as it requires a native encoder.
+	 *
+	 * @parameter
+	 */
+	private String[] precompress;
+
+	/**
+	 * The JSON manifest which maps the logical names of the CSS stylesheets to their output file names, e.g.
+	 * <code>{"main.css": "main.5d41402a.css"}</code> for the output file format <code>{fileName}.{hash}.css</code>.
+	 * Defaults to <code>manifest.json</code> in the output directory when an output file format contains the
+	 * <code>{hash}</code> token. The sourceMappings sharing a manifest share one, of which the names are relative to
+	 * the common parent of their output directories.
+	 *
+	 * @parameter expression="${lesscss.manifestFile}"
+	 */
+	private File manifestFile;
+
+	/**
+	 * The zero-based index of the shard of LESS sources to compile, when the build is split across
+	 * <code>shardCount</code> agents.
+	 *
+	 * @parameter expression="${lesscss.shardIndex}" default-value="0"
+	 */
+	private int shardIndex;
+
+	/**
+	 * The number of shards the LESS sources are split into. Every agent computes the same partition, so each LESS
+	 * source is compiled by exactly one shard. Not supported with an output file format containing the
+	 * <code>{hash}</code> token, as each shard would write a manifest with only its own CSS stylesheets.
+	 *
+	 * @parameter expression="${lesscss.shardCount}" default-value="1"
+	 */
+	private int shardCount = 1;
+
+	/**
+	 * How the LESS sources are partitioned into shards: <code>hash</code> assigns them by a stable hash of their
+	 * path, <code>cost</code> balances their compile durations read from the <code>shardCostFile</code> (or their
+	 * size when unknown).
+	 *
+	 * @parameter expression="${lesscss.shardBy}" default-value="hash"
+	 */
+	private String shardBy = Shards.HASH;
+
+	/**
+	 * The compile durations to balance the shards by with <code>shardBy</code> cost, shared by all agents, e.g. the
+	 * <code>durations-*.properties</code> of a previous full build copied from its <code>cacheDirectory</code>. It
+	 * holds the milliseconds by path relative to the source directory, e.g. <code>pages/home.less=850</code>. Each
+	 * agent's own history is not used, as the agents would compute different partitions from it. Without the file the
+	 * LESS sources are balanced by their size alone.
+	 *
+	 * @parameter expression="${lesscss.shardCostFile}"
+	 */
+	private File shardCostFile;
+
+	/**
+	 * When <code>true</code> nothing is compiled, instead the build fails if a CSS stylesheet of any LESS source is
+	 * missing from the output directory, e.g. after collecting the outputs of all shards.
+	 *
+	 * @parameter expression="${lesscss.verifyShards}" default-value="false"
+	 */
+	private boolean verifyShards;
+
+	/**
+	 * When <code>true</code> the LESS sources are scanned, checked and compiled in a pipeline, so compiling starts with
+	 * the first stale LESS source instead of after scanning and checking all of them. Not used in watch mode, in
+	 * incremental builds or with cost based sharding.
+	 *
+	 * @parameter expression="${lesscss.pipeline}" default-value="false"
+	 */
+	private boolean pipeline;
+
+	/**
+	 * Limits on the size and complexity of the compiled CSS stylesheets, each with the <code>outputs</code> it applies
+	 * to (patterns relative to the output directory, by default all), and <code>maxSize</code>,
+	 * <code>maxGzipSize</code> (in bytes), <code>maxRules</code>, <code>maxSelectors</code> and
+	 * <code>maxGrowth</code> (in percent of the size in the previous build).
+	 *
+	 * @parameter
+	 */
+	private CssBudget[] budgets;
+
+	/**
+	 * What happens when a compiled stylesheet exceeds a budget: <code>fail</code> fails the build without writing the
+	 * stylesheet, <code>warn</code> logs a warning. Watch mode only warns.
+	 *
+	 * @parameter expression="${lesscss.budgetMode}" default-value="fail"
+	 */
+	private String budgetMode = BUDGET_FAIL;
+
+	private static final String BUDGET_FAIL = "fail";
+
+	private static final String BUDGET_WARN = "warn";
+
+	/** The capacity of the queues between the stages of the pipeline. */
+	private static final int PIPELINE_CAPACITY = 64;
+
+	private static final String END_OF_FILES = new String("END_OF_FILES");
+
+	private static final StaleSource END_OF_SOURCES = new StaleSource(null, null, null, null, null);
+
+	private List<OutputVariant> outputVariants;
+
+	private LessCompilerPool lessCompilers;
+
+	private Precompressor precompressor;
+
+	private final WatchQueue<StaleSource> watchQueue = new WatchQueue<StaleSource>();
+
+	/** The output directories which exist, so each is checked once per build or round of watching. */
+	private final Set<File> checkedDirectories = new HashSet<File>();
+
+	/** Compiles the LESS sources in parallel, <code>null</code> with a single thread. */
+	private ExecutorService compileExecutor;
+
+	private DevServer devServer;
 
 	/**
 	 * Execute the MOJO.
@@ -127,121 +281,1105 @@ public class CompileMojo extends AbstractLessCssMojo {
 
 	private void executeInternal() throws MojoExecutionException {
 		long start = System.currentTimeMillis();
-		
-		String[] files = getIncludedFiles();
 
-		if (files == null || files.length < 1) {
+		if (budgets != null && budgets.length > 0 && !BUDGET_FAIL.equals(budgetMode)
+				&& !BUDGET_WARN.equals(budgetMode)) {
+			throw new MojoExecutionException("Unknown budgetMode: " + budgetMode);
+		}
+		List<Mapping> mappings = getMappings();
+		if (pipeline) {
+			if (!watch && !verifyShards && !buildContext.isIncremental()
+					&& (shardCount == 1 || Shards.HASH.equals(shardBy)) && mappings.size() == 1) {
+				executePipelined(mappings.get(0), start);
+				return;
+			}
+			getLog().debug("The pipeline is not used in watch mode, incremental builds, verification, cost based "
+					+ "sharding and with several source directories");
+		}
+
+		int found = 0;
+		for (Mapping mapping : mappings) {
+			String[] files = getIncludedFiles(mapping.sourceDirectory, mapping.includes, mapping.excludes);
+			mapping.scanned = files == null ? new String[0] : files;
+			found += mapping.scanned.length;
+			if (getLog().isDebugEnabled() && mapping.scanned.length > 0) {
+				getLog().debug("included files = " + Arrays.toString(mapping.scanned));
+			}
+		}
+
+		if (found < 1) {
 			getLog().info("Nothing to compile - no LESS sources found");
 		} else {
-			if (getLog().isDebugEnabled()) {
-				getLog().debug("included files = " + Arrays.toString(files));
+			outputVariants = getOutputVariants();
+			initManifests(mappings);
+			for (Mapping mapping : mappings) {
+				mapping.history = initHistory(mapping.sourceDirectory);
+				mapping.sizes = initSizes(mapping.sourceDirectory);
+				if (verifyShards) {
+					verifyOutputs(mapping);
+				} else {
+					mapping.files = selectShard(mapping, mapping.scanned);
+				}
+			}
+			if (verifyShards) {
+				return;
+			}
+			if (watch && detachWatch) {
+				startDetachedWatch(mappings);
+				return;
+			}
+			compileOrWatch(mappings);
+
+			getLog().info("Complete Less compile job finished in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * Returns the source directories to compile: the configured sourceMappings, or the sourceDirectory.
+	 */
+	private List<Mapping> getMappings() throws MojoExecutionException {
+		List<Mapping> mappings = new ArrayList<Mapping>();
+		if (sourceMappings == null || sourceMappings.length == 0) {
+			mappings.add(new Mapping(sourceDirectory, outputDirectory, includes, excludes));
+			return mappings;
+		}
+		for (SourceMapping sourceMapping : sourceMappings) {
+			if (sourceMapping.getSourceDirectory() == null) {
+				throw new MojoExecutionException("The sourceDirectory of a sourceMapping is required");
 			}
+			mappings.add(new Mapping(sourceMapping.getSourceDirectory(),
+					sourceMapping.getOutputDirectory() != null ? sourceMapping.getOutputDirectory() : outputDirectory,
+					sourceMapping.getIncludes() != null ? sourceMapping.getIncludes() : includes,
+					sourceMapping.getExcludes() != null ? sourceMapping.getExcludes() : excludes));
+		}
+		return mappings;
+	}
 
-			Object lessCompiler = initLessCompiler();
+	/**
+	 * Compiles the stale LESS sources of all source directories once, or until stopped in watch mode. The LESS
+	 * compilers are shared by the source directories.
+	 */
+	private void compileOrWatch(List<Mapping> mappings) throws MojoExecutionException {
+		// the LESS compilers are only created when a LESS source turns out to be stale
+		lessCompilers = createLessCompilerPool();
+		precompressor = new Precompressor(precompress, getLog());
+		compileExecutor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try {
 			if (watch){
-				getLog().info("Watching "+sourceDirectory);
+				for (Mapping mapping : mappings) {
+					getLog().info("Watching "+mapping.sourceDirectory);
+				}
 				if (force){
 					force=false;
 					getLog().info("Disabled the 'force' flag in watch mode.");
 				}
+				if (devServerPort > 0) {
+					devServer = startDevServer(mappings);
+				}
 				Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
 				while (watch && !Thread.currentThread().isInterrupted()){
-					compileIfChanged(files, lessCompiler);
+					for (Mapping mapping : mappings) {
+						try {
+							compileIfChanged(mapping);
+						} catch (MojoExecutionException e) {
+							throw new MojoExecutionException("Stopped watching " + mapping.sourceDirectory + ": "
+									+ e.getMessage(), e);
+						}
+					}
+					finishCompilation(mappings);
 					try {
 						Thread.sleep(watchInterval);
 					} catch (InterruptedException e) {
-						System.out.println("interrupted");
+						// stops watching
+						Thread.currentThread().interrupt();
+						break;
+					}
+					// picks up added and removed LESS sources, cheap while no directory changed
+					for (Mapping mapping : mappings) {
+						String[] rescanned = getIncludedFiles(mapping.sourceDirectory, mapping.includes,
+								mapping.excludes);
+						if (!Arrays.equals(mapping.scanned, rescanned)) {
+							mapping.scanned = rescanned;
+							mapping.files = selectShard(mapping, rescanned);
+						}
 					}
 				}
 			} else {
-				compileIfChanged(files, lessCompiler);
+				for (Mapping mapping : mappings) {
+					compileIfChanged(mapping);
+				}
+				finishCompilation(mappings);
+			}
+		} finally {
+			lessCompilers.close();
+			closeDependencyArchives();
+			if (compileExecutor != null) {
+				compileExecutor.shutdownNow();
+			}
+			if (devServer != null) {
+				devServer.stop();
+			}
+		}
+	}
+
+	/**
+	 * Watches on a daemon thread, so the build continues with e.g. <code>jetty:run</code>. The watcher is stopped, and
+	 * its LESS compilers closed, when the JVM exits.
+	 */
+	private void startDetachedWatch(final List<Mapping> mappings) {
+		final Thread watcher = new Thread("lesscss-watch") {
+			@Override
+			public void run() {
+				try {
+					compileOrWatch(mappings);
+				} catch (MojoExecutionException e) {
+					if (watch) {
+						getLog().error(e.getMessage(), e);
+					}
+				}
+			}
+		};
+		watcher.setDaemon(true);
+		Runtime.getRuntime().addShutdownHook(new Thread("lesscss-watch-shutdown") {
+			@Override
+			public void run() {
+				watch = false;
+				watcher.interrupt();
+				try {
+					watcher.join(SHUTDOWN_TIMEOUT);
+				} catch (InterruptedException e) {
+					// exiting anyway
+				}
 			}
+		});
+		watcher.start();
+		getLog().info("Continuing the build, the LESS sources are watched in the background until it exits");
+	}
 
+	private void executePipelined(Mapping mapping, long start) throws MojoExecutionException {
+		outputVariants = getOutputVariants();
+		if (shardCount > 1) {
+			// validates the shard
+			selectShard(mapping, new String[0]);
+		}
+		initManifests(Collections.singletonList(mapping));
+		mapping.history = initHistory(mapping.sourceDirectory);
+		mapping.sizes = initSizes(mapping.sourceDirectory);
+		lessCompilers = createLessCompilerPool();
+		precompressor = new Precompressor(precompress, getLog());
+		int found;
+		try {
+			found = compilePipelined(mapping);
+			finishCompilation(Collections.singletonList(mapping));
+		} finally {
+			lessCompilers.close();
+			closeDependencyArchives();
+		}
+		if (found == 0) {
+			getLog().info("Nothing to compile - no LESS sources found");
+		} else {
 			getLog().info("Complete Less compile job finished in " + (System.currentTimeMillis() - start) + " ms");
 		}
 	}
 
-	private void compileIfChanged(String[] files, Object lessCompiler) throws MojoExecutionException {
+	/**
+	 * Scans, checks and compiles the LESS sources in stages connected by bounded queues, so the first stale LESS source
+	 * is compiled while the source directory is still being scanned. The stages are scanning, resolving the imports and
+	 * staleness, compiling on <code>threads</code> workers, and refreshing the outputs on the calling thread.
+	 * 
+	 * @return The number of LESS sources found.
+	 */
+	private int compilePipelined(final Mapping mapping) throws MojoExecutionException {
+		final BlockingQueue<String> discovered = new ArrayBlockingQueue<String>(PIPELINE_CAPACITY);
+		final BlockingQueue<StaleSource> staleSources = new ArrayBlockingQueue<StaleSource>(PIPELINE_CAPACITY);
+		// unbounded, so a failing stage can always report to the calling thread
+		final BlockingQueue<StaleSource> results = new LinkedBlockingQueue<StaleSource>();
+		final AtomicInteger found = new AtomicInteger();
+		final int compilers = Math.max(1, threads);
+		ExecutorService stages = Executors.newFixedThreadPool(2 + compilers);
 		try {
-			for (String file : files) {
-				File input = new File(sourceDirectory, file);
+			stages.submit(new Runnable() {
+				public void run() {
+					try {
+						SourceScanner scanner = new SourceScanner(mapping.sourceDirectory, mapping.includes,
+								mapping.excludes);
+						scanner.scan(new SourceScanner.Listener() {
+							public void found(String file) throws InterruptedException {
+								if (shardCount == 1 || Shards.isInShard(file, shardIndex, shardCount)) {
+									found.incrementAndGet();
+									discovered.put(file);
+								}
+							}
+						});
+						discovered.put(END_OF_FILES);
+					} catch (Throwable e) {
+						results.add(new StaleSource(e));
+					}
+				}
+			});
+			stages.submit(new Runnable() {
+				public void run() {
+					try {
+						for (String file = discovered.take(); file != END_OF_FILES; file = discovered.take()) {
+							StaleSource staleSource = findStaleSource(mapping, file);
+							if (staleSource != null) {
+								staleSources.put(staleSource);
+							}
+						}
+						staleSources.put(END_OF_SOURCES);
+					} catch (Throwable e) {
+						results.add(new StaleSource(e));
+					}
+				}
+			});
+			for (int i = 0; i < compilers; i++) {
+				stages.submit(new Runnable() {
+					public void run() {
+						try {
+							StaleSource staleSource = staleSources.take();
+							for (; staleSource != END_OF_SOURCES; staleSource = staleSources.take()) {
+								getLog().info("Compiling LESS source: " + staleSource.file + "...");
+								staleSource.outputs = compile(staleSource);
+								results.put(staleSource);
+							}
+							// for the other workers
+							staleSources.put(END_OF_SOURCES);
+							results.put(END_OF_SOURCES);
+						} catch (Throwable e) {
+							results.add(new StaleSource(e));
+						}
+					}
+				});
+			}
 
-				buildContext.removeMessages(input);
+			for (int done = 0; done < compilers;) {
+				StaleSource result = results.take();
+				if (result == END_OF_SOURCES) {
+					done++;
+				} else if (result.error != null) {
+					if (result.error instanceof MojoExecutionException) {
+						throw (MojoExecutionException) result.error;
+					} else if (result.error instanceof RuntimeException) {
+						throw (RuntimeException) result.error;
+					} else if (result.error instanceof Error) {
+						throw (Error) result.error;
+					}
+					throw new MojoExecutionException("Error while compiling LESS sources", result.error);
+				} else {
+					compiled(result, result.outputs);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new MojoExecutionException("Interrupted while compiling LESS sources", e);
+		} finally {
+			stages.shutdownNow();
+		}
+		try {
+			mapping.history.save();
+		} catch (IOException e) {
+			getLog().warn("Could not write the LESS compile history: " + e.getMessage());
+		}
+		return found.get();
+	}
 
-                if(outputFileFormat != null){
-                    file = outputFileFormat.replaceAll(FILE_NAME_FORMAT_PARAMETER_REGEX, file.replace(".less", ""));
-                }
+	private void compileIfChanged(Mapping mapping) throws MojoExecutionException {
+		clearOutputDirectories();
+		if (watch) {
+			for (StaleSource staleSource : findStaleSources(mapping)) {
+				offer(staleSource);
+			}
+			while (!watchQueue.isEmpty()) {
+				// the queue coalesces and orders the batch, which is compiled on the workers as in a full build
+				List<StaleSource> batch = new ArrayList<StaleSource>();
+				for (StaleSource staleSource = watchQueue.poll(); staleSource != null;
+						staleSource = watchQueue.poll()) {
+					batch.add(staleSource);
+				}
+				compile(mapping, batch, false);
+				// pick up the files saved during the compilation, so the latest edit is compiled next
+				for (StaleSource changed : findStaleSources(mapping)) {
+					offer(changed);
+				}
+			}
+		} else {
+			compile(mapping, findStaleSources(mapping), true);
+		}
+	}
 
-				File output = new File(outputDirectory, file.replace(".less", ".css"));
+	/**
+	 * Writes the manifests, deletes the hashed stylesheets they no longer refer to, and writes the stylesheet sizes and
+	 * the import index. A manifest shared by several source directories is written once they have all been compiled.
+	 */
+	private void finishCompilation(List<Mapping> mappings) throws MojoExecutionException {
+		Set<AssetManifest> written = new HashSet<AssetManifest>();
+		for (Mapping mapping : mappings) {
+			AssetManifest manifest = mapping.manifest;
+			if (manifest == null || !written.add(manifest)) {
+				continue;
+			}
+			try {
+				if (manifest.write()) {
+					buildContext.refresh(manifest.getFile());
+					for (File deleted : manifest.deleteReplaced()) {
+						buildContext.refresh(deleted);
+					}
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException("Error while writing asset manifest: " + manifest.getFile(), e);
+			}
+		}
+		for (Mapping mapping : mappings) {
+			try {
+				mapping.sizes.save();
+			} catch (IOException e) {
+				getLog().warn("Could not write the CSS stylesheet sizes: " + e.getMessage());
+			}
+		}
+		saveImportIndex();
+	}
+
+	/**
+	 * Checks which LESS sources are stale. In watch mode LESS sources which are queued already for their latest change
+	 * are skipped without being parsed again.
+	 */
+	private List<StaleSource> findStaleSources(Mapping mapping) throws MojoExecutionException {
+		List<StaleSource> staleSources = new ArrayList<StaleSource>();
+		for (String file : mapping.files) {
+			StaleSource staleSource = findStaleSource(mapping, file);
+			if (staleSource != null) {
+				staleSources.add(staleSource);
+			}
+		}
+		return staleSources;
+	}
+
+	/**
+	 * Checks whether the LESS source is stale.
+	 * 
+	 * @return The LESS source to compile, or <code>null</code> if it is up-to-date or queued already.
+	 */
+	private StaleSource findStaleSource(Mapping mapping, String file) throws MojoExecutionException {
+		File input = new File(mapping.sourceDirectory, file);
+
+		buildContext.removeMessages(input);
+
+		List<File> targets = new ArrayList<File>();
+		List<File> outputs = new ArrayList<File>();
+		for (OutputVariant variant : outputVariants) {
+			File output = new File(mapping.outputDirectory, variant.formatOutputFile(file));
+			targets.add(output);
+			if (variant.isHashed()) {
+				// the hashed name is only known after compiling, so check the one of the previous compilation
+				output = mapping.manifest.get(mapping.manifestPrefix + variant.formatOutputFile(file));
+			}
+			outputs.add(output);
+		}
+
+		long lastModified = getLastModified(mapping, file, input);
+		if (!force && lastModified > 0 && isUpToDate(outputs, lastModified)) {
+			if (!watch) {
+				getLog().info("Bypassing LESS source: " + file + " (not modified)");
+			}
+			return null;
+		}
+		if (watch && lastModified > 0 && watchQueue.isQueued(ImportGraph.toPath(file), lastModified)) {
+			return null;
+		}
+
+		try {
+			LessSource lessSource = newLessSource(input);
+			ImportGraph graph = indexImports(mapping.sourceDirectory, file, lessSource);
+			if (force || isStale(outputs, lessSource)) {
+				StaleSource staleSource = new StaleSource(mapping, file, input, lessSource, targets);
+				staleSource.directImports = graph.getImports(ImportGraph.toPath(file));
+				return staleSource;
+			}
+			else if (!watch) {
+				getLog().info("Bypassing LESS source: " + file + " (not modified)");
+			}
+			return null;
+		} catch (IOException e) {
+			throw compileError(file, input, e);
+		}
+	}
 
-				if (!output.getParentFile().exists() && !output.getParentFile().mkdirs()) {
-					throw new MojoExecutionException("Cannot create output directory " + output.getParentFile());
+	/**
+	 * Queues the stale LESS source for its most recently modified file.
+	 */
+	private void offer(StaleSource staleSource) {
+		String root = ImportGraph.toPath(staleSource.file);
+		long lastChange = staleSource.input.lastModified();
+		String changedPath = root;
+		ImportIndex index = getImportIndex(staleSource.mapping.sourceDirectory);
+		if (index != null) {
+			for (String importPath : index.getImports(root)) {
+				long importLastModified = new File(staleSource.mapping.sourceDirectory, importPath).lastModified();
+				if (importLastModified > lastChange) {
+					lastChange = importLastModified;
+					changedPath = importPath;
 				}
+			}
+		}
+		watchQueue.offer(root, staleSource, lastChange, changedPath, staleSource.directImports);
+	}
 
-				try {
-					LessSource lessSource = new LessSource(input);
-					if (force || !output.exists() || output.lastModified() < lessSource.getLastModifiedIncludingImports()) {
-						long compilationStarted = System.currentTimeMillis();
-						getLog().info("Compiling LESS source: " + file + "...");
-						if (lessCompiler instanceof LessCompiler) {
-							((LessCompiler) lessCompiler).compile(lessSource, output, force);
-						} else {
-							((NodeJsLessCompiler) lessCompiler).compile(lessSource, output, force);
-						}
-						buildContext.refresh(output);
-						getLog().info("Finished compilation to "+outputDirectory+" in " + (System.currentTimeMillis() - compilationStarted) + " ms");
-					}
-					else if (!watch) {
-						getLog().info("Bypassing LESS source: " + file + " (not modified)");
+	/**
+	 * Compiles the stale LESS sources, longest predicted compilation first or in the given order. With several threads
+	 * the workers take the next LESS source when they are done, so the longest ones do not end up running last (LPT
+	 * scheduling).
+	 * 
+	 * @param longestFirst
+	 *            Whether to sort the LESS sources by their predicted compile duration, rather than keep the order of
+	 *            the watch queue.
+	 */
+	private void compile(Mapping mapping, List<StaleSource> staleSources, boolean longestFirst)
+			throws MojoExecutionException {
+		predict(mapping, staleSources);
+		if (longestFirst) {
+			Collections.sort(staleSources, new Comparator<StaleSource>() {
+				public int compare(StaleSource s1, StaleSource s2) {
+					return s1.predicted < s2.predicted ? 1 : (s1.predicted > s2.predicted ? -1 : 0);
+				}
+			});
+		}
+
+		Map<StaleSource, Future<List<File>>> compilations = new LinkedHashMap<StaleSource, Future<List<File>>>();
+		for (final StaleSource staleSource : staleSources) {
+			getLog().info("Compiling LESS source: " + staleSource.file + "...");
+			if (compileExecutor == null) {
+				compiled(staleSource, compile(staleSource));
+			} else {
+				compilations.put(staleSource, compileExecutor.submit(new Callable<List<File>>() {
+					public List<File> call() throws Exception {
+						return compile(staleSource);
 					}
-				} catch (IOException e) {
-					buildContext.addMessage(input, 0, 0, "Error compiling LESS source", BuildContext.SEVERITY_ERROR, e);
-					throw new MojoExecutionException("Error while compiling LESS source: " + file, e);
-				} catch (LessException e) {
-					String message = e.getMessage();
-					if (StringUtils.isEmpty(message)) {
-						message = "Error compiling LESS source";
+				}));
+			}
+		}
+		if (compileExecutor != null) {
+			for (Map.Entry<StaleSource, Future<List<File>>> compilation : compilations.entrySet()) {
+				StaleSource staleSource = compilation.getKey();
+				try {
+					compiled(staleSource, compilation.getValue().get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof MojoExecutionException) {
+						throw (MojoExecutionException) cause;
+					} else if (cause instanceof Exception && !(cause instanceof RuntimeException)) {
+						throw compileError(staleSource.file, staleSource.input, (Exception) cause);
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
 					}
-					buildContext.addMessage(input, 0, 0, "Error compiling LESS source", BuildContext.SEVERITY_ERROR, e);
-					throw new MojoExecutionException("Error while compiling LESS source: " + file, e);
+					throw (RuntimeException) cause;
 				} catch (InterruptedException e) {
-					buildContext.addMessage(input, 0, 0, "Error compiling LESS source", BuildContext.SEVERITY_ERROR, e);
-					throw new MojoExecutionException("Error while compiling LESS source: " + file, e);
+					throw compileError(staleSource.file, staleSource.input, e);
+				}
+			}
+		}
+		try {
+			mapping.history.save();
+		} catch (IOException e) {
+			getLog().warn("Could not write the LESS compile history: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Compiles the LESS source to its output files, on a worker thread if there are several threads.
+	 * 
+	 * @return The output files.
+	 */
+	private List<File> compile(StaleSource staleSource) throws MojoExecutionException {
+		long started = System.currentTimeMillis();
+		List<File> outputs = new ArrayList<File>();
+		List<File> tempFiles = new ArrayList<File>();
+		List<File> gzipFiles = new ArrayList<File>();
+		try {
+			for (File target : staleSource.targets) {
+				createOutputDirectory(target);
+				tempFiles.add(CssFiles.createTempFile(target));
+				if (precompressor.isEnabled()) {
+					gzipFiles.add(CssFiles.createTempFile(Precompressor.getGzipFile(target)));
+				}
+			}
+			boolean budgeted = budgets != null && budgets.length > 0;
+			List<CssStats> stats = null;
+			if (budgeted || precompressor.isEnabled()) {
+				// the precompressed siblings are gzipped while the stylesheets are written, once for the budgets too
+				stats = new ArrayList<CssStats>();
+				for (int i = 0; i < outputVariants.size(); i++) {
+					boolean gzip = budgeted && isGzipBudgeted(outputVariants.get(i).formatOutputFile(staleSource.file));
+					stats.add(new CssStats(gzip, gzipFiles.isEmpty() ? null : gzipFiles.get(i)));
 				}
 			}
+			lessCompilers.compile(staleSource.lessSource, outputVariants, tempFiles, encoding, stats);
+			if (budgeted) {
+				checkBudgets(staleSource, tempFiles, stats);
+			}
+			for (int i = 0; i < tempFiles.size(); i++) {
+				if (devServer != null) {
+					// read before the move, as the published file may already be replaced by the next compilation
+					staleSource.css.add(FileUtils.readFileToByteArray(tempFiles.get(i)));
+				}
+				File output = moveOutput(staleSource.mapping, staleSource.file, outputVariants.get(i),
+						tempFiles.get(i), staleSource.targets.get(i));
+				outputs.add(output);
+				if (!gzipFiles.isEmpty()) {
+					File gzipped = Precompressor.getGzipFile(output);
+					CssFiles.move(gzipFiles.get(i), gzipped);
+					staleSource.precompressed.add(gzipped);
+				}
+			}
+		} catch (IOException e) {
+			throw compileError(staleSource.file, staleSource.input, e);
+		} catch (LessException e) {
+			throw compileError(staleSource.file, staleSource.input, e);
+		} catch (InterruptedException e) {
+			throw compileError(staleSource.file, staleSource.input, e);
 		} finally {
-			if (lessCompiler instanceof NodeJsLessCompiler) {
-				((NodeJsLessCompiler) lessCompiler).close();
+			for (File tempFile : tempFiles) {
+				FileUtils.deleteQuietly(tempFile);
+			}
+			for (File gzipFile : gzipFiles) {
+				FileUtils.deleteQuietly(gzipFile);
 			}
 		}
+		staleSource.actual = System.currentTimeMillis() - started;
+		return outputs;
 	}
 
-	private Object initLessCompiler() throws MojoExecutionException {
-		if (nodeExecutable != null) {
-			NodeJsLessCompiler lessCompiler;
-			try {
-				lessCompiler = new NodeJsLessCompiler(nodeExecutable, compress, encoding, getLog());
-			} catch (IOException e) {
-				throw new MojoExecutionException(e.getMessage(), e);
+	/**
+	 * Creates the directory of the output file if it does not exist, checking each directory once.
+	 */
+	private void createOutputDirectory(File output) throws MojoExecutionException {
+		File directory = output.getParentFile();
+		synchronized (checkedDirectories) {
+			if (checkedDirectories.contains(directory)) {
+				return;
+			}
+			if (!directory.exists() && !directory.mkdirs()) {
+				throw new MojoExecutionException("Cannot create output directory " + directory);
+			}
+			checkedDirectories.add(directory);
+		}
+	}
+
+	/**
+	 * Forgets the output directories checked so far, e.g. when watching as they may have been deleted since.
+	 */
+	private void clearOutputDirectories() {
+		synchronized (checkedDirectories) {
+			checkedDirectories.clear();
+		}
+	}
+
+	private boolean isGzipBudgeted(String name) {
+		for (CssBudget budget : budgets) {
+			if (budget.getMaxGzipSize() > 0 && budget.appliesTo(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks the compiled CSS stylesheets against the budgets before they are moved into place, and records their
+	 * sizes. A stylesheet which fails its budget is not written, so its LESS source stays stale and fails the next
+	 * build as well, even when its growth is compared with the previous build.
+	 */
+	private void checkBudgets(StaleSource staleSource, List<File> tempFiles, List<CssStats> stats)
+			throws MojoExecutionException {
+		StylesheetSizes sizes = staleSource.mapping.sizes;
+		List<String> exceeded = new ArrayList<String>();
+		for (int i = 0; i < tempFiles.size(); i++) {
+			String name = outputVariants.get(i).formatOutputFile(staleSource.file);
+			CssStats css = stats.get(i);
+			css.bytes = tempFiles.get(i).length();
+			long previous = sizes.get(name);
+			getLog().info("Stylesheet " + name + ": " + css.bytes + " bytes"
+					+ (previous < 0 ? "" : String.format(" (%+d)", Long.valueOf(css.bytes - previous)))
+					+ (css.gzipBytes < 0 ? "" : ", " + css.gzipBytes + " bytes gzipped") + ", " + css.rules
+					+ " rules, " + css.selectors + " selectors");
+			for (CssBudget budget : budgets) {
+				if (budget.appliesTo(name)) {
+					for (String limit : budget.check(css, previous)) {
+						exceeded.add(name + ": " + limit);
+					}
+				}
+			}
+		}
+
+		boolean fail = !exceeded.isEmpty() && BUDGET_FAIL.equals(budgetMode) && !watch;
+		for (String limit : exceeded) {
+			if (fail) {
+				getLog().error("CSS budget exceeded, " + limit);
+			} else {
+				getLog().warn("CSS budget exceeded, " + limit);
+			}
+		}
+		if (!exceeded.isEmpty()) {
+			buildContext.addMessage(staleSource.input, 0, 0, "CSS budget exceeded, "
+					+ StringUtils.join(exceeded.iterator(), "; "), fail ? BuildContext.SEVERITY_ERROR
+					: BuildContext.SEVERITY_WARNING, null);
+		}
+		if (fail) {
+			throw new MojoExecutionException("The CSS stylesheets of LESS source " + staleSource.file
+					+ " exceed their budgets, see the log");
+		}
+		for (int i = 0; i < tempFiles.size(); i++) {
+			sizes.put(outputVariants.get(i).formatOutputFile(staleSource.file), stats.get(i).bytes);
+		}
+	}
+
+	private void compiled(StaleSource staleSource, List<File> outputs) {
+		for (File output : outputs) {
+			buildContext.refresh(output);
+		}
+		for (File precompressed : staleSource.precompressed) {
+			buildContext.refresh(precompressed);
+		}
+		if (devServer != null) {
+			publish(staleSource, outputs);
+		}
+		staleSource.mapping.history.put(ImportGraph.toPath(staleSource.file), staleSource.actual);
+		getLog().info("Finished compilation to " + staleSource.mapping.outputDirectory + " in " + staleSource.actual
+				+ " ms (predicted " + staleSource.predicted + " ms)");
+	}
+
+	private DevServer startDevServer(List<Mapping> mappings) throws MojoExecutionException {
+		try {
+			DevServer server = new DevServer(devServerPort, encoding, getServedDirectories(mappings), getLog());
+			getLog().info("Serving the compiled CSS at http://localhost:" + server.getPort()
+					+ "/, include http://localhost:" + server.getPort() + DevServer.CLIENT
+					+ " in the page to reload it on change");
+			return server;
+		} catch (IOException e) {
+			throw new MojoExecutionException("Cannot start the LESS dev server on port " + devServerPort, e);
+		}
+	}
+
+	/**
+	 * Returns the output directories by the path prefix the dev server serves them below: their path relative to the
+	 * common parent of all output directories, so the stylesheets of different source directories do not collide.
+	 */
+	private Map<String, File> getServedDirectories(List<Mapping> mappings) throws IOException {
+		List<File> outputDirectories = new ArrayList<File>();
+		for (Mapping mapping : mappings) {
+			outputDirectories.add(mapping.outputDirectory.getCanonicalFile());
+		}
+		File parent = getCommonParent(outputDirectories);
+		Map<String, File> directories = new LinkedHashMap<String, File>();
+		for (int i = 0; i < mappings.size(); i++) {
+			Mapping mapping = mappings.get(i);
+			File directory = outputDirectories.get(i);
+			// e.g. on different drives without a common parent
+			mapping.servedPrefix = parent == null ? (i + 1) + "/" : getRelativePrefix(directory, parent);
+			directories.put(mapping.servedPrefix, directory);
+		}
+		return directories;
+	}
+
+	/**
+	 * Returns the deepest directory containing all canonical directories, or <code>null</code> if there is none.
+	 */
+	private static File getCommonParent(List<File> directories) {
+		File parent = directories.get(0);
+		for (File directory : directories) {
+			while (parent != null && !isWithin(directory, parent)) {
+				parent = parent.getParentFile();
+			}
+		}
+		return parent;
+	}
+
+	/**
+	 * Returns the path of the directory relative to its parent with a trailing slash, or an empty string if they are
+	 * the same.
+	 */
+	private static String getRelativePrefix(File directory, File parent) {
+		if (directory.equals(parent)) {
+			return "";
+		}
+		String relativePath = directory.getPath().substring(parent.getPath().length());
+		return StringUtils.stripStart(relativePath.replace(File.separatorChar, '/'), "/") + "/";
+	}
+
+	private static boolean isWithin(File file, File directory) {
+		String path = directory.getPath();
+		return file.equals(directory) || file.getPath().startsWith(path.endsWith(File.separator) ? path : path
+				+ File.separator);
+	}
+
+	/**
+	 * Hands the compiled stylesheets to the dev server, by their logical and hashed names below the path prefix of
+	 * their output directory.
+	 */
+	private void publish(StaleSource staleSource, List<File> outputs) {
+		for (int i = 0; i < outputs.size(); i++) {
+			String logicalName = staleSource.mapping.servedPrefix
+					+ outputVariants.get(i).formatOutputFile(staleSource.file).replace(File.separatorChar, '/');
+			String name = logicalName.substring(0, logicalName.lastIndexOf('/') + 1) + outputs.get(i).getName();
+			byte[] css = staleSource.css.get(i);
+			devServer.publish(logicalName, css);
+			if (!name.equals(logicalName)) {
+				devServer.publish(name, css);
+			}
+		}
+	}
+
+	/**
+	 * Predicts the compile durations from the previous builds. LESS sources without history are estimated by the
+	 * size of the source and its imports, at the compile rate of the others.
+	 */
+	private void predict(Mapping mapping, List<StaleSource> staleSources) {
+		long knownMillis = 0;
+		long knownBytes = 0;
+		for (StaleSource staleSource : staleSources) {
+			String path = ImportGraph.toPath(staleSource.file);
+			staleSource.bytes = staleSource.input.length();
+			ImportIndex index = getImportIndex(mapping.sourceDirectory);
+			if (index != null) {
+				for (String importPath : index.getImports(path)) {
+					staleSource.bytes += new File(mapping.sourceDirectory, importPath).length();
+				}
+			}
+			Long duration = mapping.history.getDuration(path);
+			if (duration != null) {
+				staleSource.predicted = duration.longValue();
+				knownMillis += staleSource.predicted;
+				knownBytes += staleSource.bytes;
+			} else {
+				staleSource.predicted = -1;
+			}
+		}
+		double millisPerByte = knownBytes > 0 ? (double) knownMillis / knownBytes
+				: CompileHistory.DEFAULT_MILLIS_PER_BYTE;
+		for (StaleSource staleSource : staleSources) {
+			if (staleSource.predicted < 0) {
+				staleSource.predicted = Math.round(staleSource.bytes * millisPerByte);
+			}
+		}
+	}
+
+	private MojoExecutionException compileError(String file, File input, Exception e) {
+		buildContext.addMessage(input, 0, 0, "Error compiling LESS source", BuildContext.SEVERITY_ERROR, e);
+		return new MojoExecutionException("Error while compiling LESS source: " + file, e);
+	}
+
+	/**
+	 * Moves the compiled CSS stylesheet into place, under its hashed name if the output file format requires one.
+	 */
+	private File moveOutput(Mapping mapping, String file, OutputVariant variant, File tempFile, File target)
+			throws IOException {
+		String name = variant.formatOutputFile(file);
+		File output = target;
+		if (variant.isHashed()) {
+			String hashedName = variant.formatOutputFile(file, AssetManifest.hash(tempFile));
+			output = new File(mapping.outputDirectory, hashedName);
+			mapping.manifest.put(mapping.manifestPrefix + name, mapping.manifestPrefix + hashedName);
+		} else if (mapping.manifest != null) {
+			mapping.manifest.put(mapping.manifestPrefix + name, mapping.manifestPrefix + name);
+		}
+		CssFiles.move(tempFile, output);
+		return output;
+	}
+
+	private List<OutputVariant> getOutputVariants() throws MojoExecutionException {
+		if (themes != null && themes.length > 0) {
+			for (Theme theme : themes) {
+				if (StringUtils.isEmpty(theme.getName())) {
+					throw new MojoExecutionException("Every theme requires a name");
+				}
+			}
+			return new ArrayList<OutputVariant>(Arrays.asList(themes));
+		}
+		if (variants == null || variants.length < 1) {
+			List<OutputVariant> outputVariants = new ArrayList<OutputVariant>();
+			outputVariants.add(new OutputVariant(compress, outputFileFormat));
+			return outputVariants;
+		}
+		return Arrays.asList(variants);
+	}
+
+	/**
+	 * Returns the last modification time of the LESS source and the imports recorded by a previous build, so the
+	 * staleness of a LESS source can be checked without reading or parsing it.
+	 * 
+	 * @return The last modification time, or 0 if the imports are not known or one of them does not exist.
+	 */
+	private long getLastModified(Mapping mapping, String file, File input) {
+		ImportIndex index = getImportIndex(mapping.sourceDirectory);
+		String path = ImportGraph.toPath(file);
+		if (index == null || !index.contains(path)) {
+			return 0L;
+		}
+		long lastModified = input.lastModified();
+		for (String importPath : index.getImports(path)) {
+			long importLastModified = getImportLastModified(mapping.sourceDirectory, index, importPath);
+			if (importLastModified == 0L) {
+				// deleted, or moved out of the source directory or dependency archives
+				return 0L;
+			}
+			lastModified = Math.max(lastModified, importLastModified);
+		}
+		return lastModified;
+	}
+
+	private boolean isUpToDate(List<File> outputs, long lastModified) {
+		for (File output : outputs) {
+			if (output == null || output.lastModified() < lastModified) {
+				return false;
 			}
-			if (lessJs != null) {
-				throw new MojoExecutionException(
-						"Custom LESS JavaScript is not currently supported when using nodeExecutable");
+		}
+		return true;
+	}
+
+	private boolean isStale(List<File> outputs, LessSource lessSource) {
+		for (File output : outputs) {
+			if (output == null || !output.exists()
+					|| output.lastModified() < lessSource.getLastModifiedIncludingImports()) {
+				return true;
 			}
-			return lessCompiler;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the LESS sources of the configured shard.
+	 */
+	private String[] selectShard(Mapping mapping, String[] files) throws MojoExecutionException {
+		if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+			throw new MojoExecutionException("Invalid shard " + shardIndex + " of " + shardCount
+					+ ", the shardIndex must be at least 0 and less than the shardCount");
+		}
+		if (shardCount == 1) {
+			return files;
+		}
+		for (OutputVariant variant : outputVariants) {
+			if (variant.isHashed()) {
+				throw new MojoExecutionException("Sharding is not supported with hashed output file names, each shard "
+						+ "would write a manifest with only its own CSS stylesheets");
+			}
+		}
+		String[] shard;
+		if (Shards.HASH.equals(shardBy)) {
+			shard = Shards.byHash(files, shardIndex, shardCount);
+		} else if (Shards.COST.equals(shardBy)) {
+			shard = Shards.byCost(files, shardIndex, shardCount, mapping.sourceDirectory, loadShardCosts());
 		} else {
-			LessCompiler lessCompiler = new LessCompiler();
-			lessCompiler.setCompress(compress);
-			lessCompiler.setEncoding(encoding);
-			if (lessJs != null) {
-				try {
-					lessCompiler.setLessJs(lessJs.toURI().toURL());
-				} catch (MalformedURLException e) {
-					throw new MojoExecutionException(
-							"Error while loading LESS JavaScript: " + lessJs.getAbsolutePath(), e);
+			throw new MojoExecutionException("Unknown shardBy: " + shardBy + ", expected hash or cost");
+		}
+		getLog().info("Compiling shard " + shardIndex + " of " + shardCount + ": " + shard.length + " of "
+				+ files.length + " LESS sources");
+		return shard;
+	}
+
+	/**
+	 * Returns the shared compile durations to balance the shards by, or <code>null</code> to balance them by size.
+	 */
+	private CompileHistory loadShardCosts() throws MojoExecutionException {
+		if (shardCostFile == null) {
+			getLog().debug("No shardCostFile, the shards are balanced by the size of the LESS sources");
+			return null;
+		}
+		if (!shardCostFile.isFile()) {
+			getLog().warn("The shardCostFile " + shardCostFile + " does not exist, the shards are balanced by the size "
+					+ "of the LESS sources");
+			return null;
+		}
+		try {
+			return new CompileHistory(shardCostFile);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error while reading the shardCostFile " + shardCostFile, e);
+		}
+	}
+
+	/**
+	 * Checks that the CSS stylesheets of all LESS sources exist, without compiling.
+	 */
+	private void verifyOutputs(Mapping mapping) throws MojoExecutionException {
+		String[] files = mapping.scanned;
+		List<String> missing = new ArrayList<String>();
+		for (String file : files) {
+			for (OutputVariant variant : outputVariants) {
+				String name = variant.formatOutputFile(file);
+				File output = variant.isHashed() ? mapping.manifest.get(mapping.manifestPrefix + name) : new File(
+						mapping.outputDirectory, name);
+				if (output == null || !output.exists()) {
+					missing.add(name);
 				}
 			}
-			return lessCompiler;
+		}
+		if (!missing.isEmpty()) {
+			for (String name : missing) {
+				getLog().error("Missing CSS stylesheet: " + name);
+			}
+			throw new MojoExecutionException(missing.size() + " CSS stylesheets are missing from "
+					+ mapping.outputDirectory + ", not every shard has been compiled");
+		}
+		getLog().info("All " + files.length + " LESS sources have been compiled to " + mapping.outputDirectory);
+	}
+
+	private CompileHistory initHistory(File sourceDirectory) {
+		File file = getCacheFile(sourceDirectory, "durations");
+		try {
+			return new CompileHistory(file);
+		} catch (IOException e) {
+			getLog().warn("Could not read the LESS compile history " + file + ": " + e.getMessage());
+			try {
+				return new CompileHistory(null);
+			} catch (IOException cannotHappen) {
+				throw new IllegalStateException(cannotHappen);
+			}
+		}
+	}
+
+	private StylesheetSizes initSizes(File sourceDirectory) {
+		File file = getCacheFile(sourceDirectory, "sizes");
+		try {
+			return new StylesheetSizes(file);
+		} catch (IOException e) {
+			getLog().warn("Could not read the CSS stylesheet sizes " + file + ": " + e.getMessage());
+			try {
+				return new StylesheetSizes(null);
+			} catch (IOException cannotHappen) {
+				throw new IllegalStateException(cannotHappen);
+			}
+		}
+	}
+
+	/**
+	 * Reads the manifests of the source directories. Source directories with the same manifest file share one, with
+	 * the names relative to the common parent of their output directories, so none overwrites the entries of another.
+	 */
+	private void initManifests(List<Mapping> mappings) throws MojoExecutionException {
+		Map<File, List<Mapping>> byFile = new LinkedHashMap<File, List<Mapping>>();
+		for (Mapping mapping : mappings) {
+			File file = manifestFile;
+			if (file == null) {
+				for (OutputVariant variant : outputVariants) {
+					if (variant.isHashed()) {
+						file = new File(mapping.outputDirectory, "manifest.json");
+					}
+				}
+			}
+			if (file != null) {
+				if (!byFile.containsKey(file)) {
+					byFile.put(file, new ArrayList<Mapping>());
+				}
+				byFile.get(file).add(mapping);
+			}
+		}
+		for (Map.Entry<File, List<Mapping>> entry : byFile.entrySet()) {
+			try {
+				if (entry.getValue().size() == 1) {
+					Mapping mapping = entry.getValue().get(0);
+					mapping.manifest = new AssetManifest(entry.getKey(), mapping.outputDirectory);
+					continue;
+				}
+				List<File> directories = new ArrayList<File>();
+				for (Mapping mapping : entry.getValue()) {
+					directories.add(mapping.outputDirectory.getCanonicalFile());
+				}
+				File parent = getCommonParent(directories);
+				if (parent == null) {
+					throw new MojoExecutionException("The output directories sharing the asset manifest "
+							+ entry.getKey() + " have no common parent directory");
+				}
+				AssetManifest manifest = new AssetManifest(entry.getKey(), parent);
+				for (int i = 0; i < directories.size(); i++) {
+					Mapping mapping = entry.getValue().get(i);
+					mapping.manifest = manifest;
+					mapping.manifestPrefix = getRelativePrefix(directories.get(i), parent);
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException(e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * A source directory compiled by the execution, with its state.
+	 */
+	private static class Mapping {
+
+		private final File sourceDirectory;
+
+		private final File outputDirectory;
+
+		private final String[] includes;
+
+		private final String[] excludes;
+
+		private AssetManifest manifest;
+
+		/** The path prefix of the output directory in the manifest, which can be shared with other mappings. */
+		private String manifestPrefix = "";
+
+		private CompileHistory history;
+
+		private StylesheetSizes sizes;
+
+		/** The path prefix the dev server serves the stylesheets of the output directory below. */
+		private String servedPrefix = "";
+
+		/** All included LESS sources. */
+		private String[] scanned;
+
+		/** The included LESS sources of the shard. */
+		private String[] files;
+
+		Mapping(File sourceDirectory, File outputDirectory, String[] includes, String[] excludes) {
+			this.sourceDirectory = sourceDirectory;
+			this.outputDirectory = outputDirectory;
+			this.includes = includes;
+			this.excludes = excludes;
+		}
+	}
+
+	/**
+	 * A LESS source to compile, with its output files and compile durations.
+	 */
+	private static class StaleSource {
+
+		private final Mapping mapping;
+
+		private final String file;
+
+		private final File input;
+
+		private final LessSource lessSource;
+
+		private final List<File> targets;
+
+		private List<String> directImports;
+
+		private List<File> outputs;
+
+		private final List<File> precompressed = new ArrayList<File>();
+
+		/** The compiled CSS stylesheets in the order of the outputs, kept for the dev server only. */
+		private final List<byte[]> css = new ArrayList<byte[]>();
+
+		/** The failure of a pipeline stage. */
+		private Throwable error;
+
+		private long bytes;
+
+		private long predicted;
+
+		private long actual;
+
+		StaleSource(Mapping mapping, String file, File input, LessSource lessSource, List<File> targets) {
+			this.mapping = mapping;
+			this.file = file;
+			this.input = input;
+			this.lessSource = lessSource;
+			this.targets = targets;
+		}
+
+		StaleSource(Throwable error) {
+			this(null, null, null, null, null);
+			this.error = error;
 		}
 	}
 }
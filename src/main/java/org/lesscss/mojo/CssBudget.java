@@ -0,0 +1,151 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Limits on the size and complexity of the compiled CSS stylesheets. A limit of 0 is not checked.
+ */
+public class CssBudget {
+
+	/**
+	 * The CSS stylesheets the budget applies to, as patterns relative to the output directory, by default all of them.
+	 */
+	private String[] outputs;
+
+	/**
+	 * The maximum size of a stylesheet in bytes.
+	 */
+	private long maxSize;
+
+	/**
+	 * The maximum gzipped size of a stylesheet in bytes.
+	 */
+	private long maxGzipSize;
+
+	/**
+	 * The maximum number of style rules of a stylesheet.
+	 */
+	private int maxRules;
+
+	/**
+	 * The maximum number of selectors of a stylesheet.
+	 */
+	private int maxSelectors;
+
+	/**
+	 * The maximum growth of a stylesheet compared with the previous build, in percent.
+	 */
+	private int maxGrowth;
+
+	public String[] getOutputs() {
+		return outputs;
+	}
+
+	public void setOutputs(String[] outputs) {
+		this.outputs = outputs;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getMaxGzipSize() {
+		return maxGzipSize;
+	}
+
+	public void setMaxGzipSize(long maxGzipSize) {
+		this.maxGzipSize = maxGzipSize;
+	}
+
+	public int getMaxRules() {
+		return maxRules;
+	}
+
+	public void setMaxRules(int maxRules) {
+		this.maxRules = maxRules;
+	}
+
+	public int getMaxSelectors() {
+		return maxSelectors;
+	}
+
+	public void setMaxSelectors(int maxSelectors) {
+		this.maxSelectors = maxSelectors;
+	}
+
+	public int getMaxGrowth() {
+		return maxGrowth;
+	}
+
+	public void setMaxGrowth(int maxGrowth) {
+		this.maxGrowth = maxGrowth;
+	}
+
+	/**
+	 * Whether the budget applies to the stylesheet.
+	 *
+	 * @param name
+	 *            The path of the stylesheet relative to the output directory.
+	 */
+	boolean appliesTo(String name) {
+		if (outputs == null || outputs.length == 0) {
+			return true;
+		}
+		for (String pattern : outputs) {
+			if (SelectorUtils.matchPath(pattern.replace('/', File.separatorChar), name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks the stylesheet against the budget.
+	 *
+	 * @param previousBytes
+	 *            The size of the stylesheet in the previous build, or -1 if unknown.
+	 * @return The exceeded limits.
+	 */
+	List<String> check(CssStats stats, long previousBytes) {
+		List<String> exceeded = new ArrayList<String>();
+		if (maxSize > 0 && stats.bytes > maxSize) {
+			exceeded.add("size " + stats.bytes + " bytes exceeds " + maxSize + " bytes");
+		}
+		if (maxGzipSize > 0 && stats.gzipBytes > maxGzipSize) {
+			exceeded.add("gzipped size " + stats.gzipBytes + " bytes exceeds " + maxGzipSize + " bytes");
+		}
+		if (maxRules > 0 && stats.rules > maxRules) {
+			exceeded.add(stats.rules + " rules exceed " + maxRules);
+		}
+		if (maxSelectors > 0 && stats.selectors > maxSelectors) {
+			exceeded.add(stats.selectors + " selectors exceed " + maxSelectors);
+		}
+		if (maxGrowth > 0 && previousBytes > 0 && (stats.bytes - previousBytes) * 100 > maxGrowth * previousBytes) {
+			exceeded.add("grew by " + ((stats.bytes - previousBytes) * 100 / previousBytes) + "% from " + previousBytes
+					+ " bytes, more than " + maxGrowth + "%");
+		}
+		return exceeded;
+	}
+}
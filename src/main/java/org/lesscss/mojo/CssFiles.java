@@ -0,0 +1,126 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Writes the compiled CSS stylesheets. Stylesheets are streamed to a temp file next to their output file and then
+ * moved into place, so a stylesheet is never copied in memory and readers never see a partially written one.
+ */
+final class CssFiles {
+
+	private CssFiles() {
+	}
+
+	/**
+	 * Creates a temp file in the directory of the output file, from which it can be renamed atomically.
+	 */
+	static File createTempFile(File output) throws IOException {
+		return File.createTempFile("." + output.getName() + "-", ".tmp", output.getParentFile());
+	}
+
+	/**
+	 * Writes the CSS stylesheet to the file, encoding it in chunks.
+	 */
+	static void write(File file, String css, String encoding) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		Writer writer = encoding == null ? new OutputStreamWriter(out) : new OutputStreamWriter(out, encoding);
+		try {
+			writer.write(css);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes the CSS stylesheet to the file, encoding it in chunks, and measures it on the way.
+	 */
+	static void write(File file, String css, String encoding, CssStats stats) throws IOException {
+		stats.count(css);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out = stats.measure(out);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		Writer writer = encoding == null ? new OutputStreamWriter(out) : new OutputStreamWriter(out, encoding);
+		try {
+			writer.write(css);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Re-encodes the source file to the target file, streaming.
+	 */
+	static void transcode(File source, String sourceEncoding, File target, String encoding) throws IOException {
+		transcode(source, sourceEncoding, target, encoding, new CssStats(false));
+	}
+
+	/**
+	 * Re-encodes the source file to the target file, streaming, and gzips it on the way if the statistics measure
+	 * the gzipped size.
+	 */
+	static void transcode(File source, String sourceEncoding, File target, String encoding, CssStats stats)
+			throws IOException {
+		InputStream in = new FileInputStream(source);
+		try {
+			Reader reader = new InputStreamReader(in, sourceEncoding);
+			OutputStream out = new FileOutputStream(target);
+			try {
+				out = stats.measure(out);
+			} catch (IOException e) {
+				out.close();
+				throw e;
+			}
+			Writer writer = encoding == null ? new OutputStreamWriter(out) : new OutputStreamWriter(out, encoding);
+			try {
+				IOUtils.copy(reader, writer);
+			} finally {
+				writer.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Moves the temp file to the output file, replacing it.
+	 */
+	static void move(File tempFile, File output) throws IOException {
+		if (tempFile.renameTo(output)) {
+			return;
+		}
+		// renaming onto an existing file fails on Windows
+		if (output.exists() && output.delete() && tempFile.renameTo(output)) {
+			return;
+		}
+		throw new IOException("Cannot move " + tempFile + " to " + output);
+	}
+}
@@ -0,0 +1,232 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * The size and complexity of a compiled CSS stylesheet, checked against the {@link CssBudget}s. The rules and
+ * selectors are counted from the CSS the compiler holds in memory, and the stylesheet is gzipped while it is written,
+ * so it is not read again. The gzipped stylesheet is kept as the precompressed sibling if requested, so it is
+ * compressed once for both. lessc.js counts and compresses the same way for the NodeJS compiler.
+ */
+class CssStats {
+
+	private static final int RULE = 0;
+
+	private static final int AT_RULE = 1;
+
+	private static final int GROUP = 2;
+
+	private static final int KEYFRAMES = 3;
+
+	private static final int KEYFRAME = 4;
+
+	private static final String WHITESPACE = " \t\n\r\f";
+
+	private final boolean gzip;
+
+	private final File gzipFile;
+
+	/** The size of the stylesheet in bytes, -1 until it has been written. */
+	long bytes = -1;
+
+	/** The gzipped size of the stylesheet in bytes, -1 if not measured. */
+	long gzipBytes = -1;
+
+	/** The number of style rules. */
+	int rules;
+
+	/** The number of selectors of the style rules. */
+	int selectors;
+
+	/**
+	 * @param gzip
+	 *            Whether to measure the gzipped size, which costs compressing the stylesheet.
+	 */
+	CssStats(boolean gzip) {
+		this(gzip, null);
+	}
+
+	/**
+	 * @param gzipFile
+	 *            The file to write the gzipped stylesheet to, e.g. a temp file of its precompressed sibling, or
+	 *            <code>null</code>. The gzipped size is measured either way.
+	 */
+	CssStats(boolean gzip, File gzipFile) {
+		this.gzip = gzip || gzipFile != null;
+		this.gzipFile = gzipFile;
+	}
+
+	boolean isGzip() {
+		return gzip;
+	}
+
+	File getGzipFile() {
+		return gzipFile;
+	}
+
+	/**
+	 * Counts the style rules and their selectors. At-rules are not counted, but the style rules nested in e.g.
+	 * <code>@media</code> are; the keyframes of <code>@keyframes</code> are not style rules.
+	 */
+	void count(CharSequence css) {
+		List<Integer> blocks = new ArrayList<Integer>();
+		int start = -1;
+		int commas = 0;
+		int nesting = 0;
+		for (int i = 0; i < css.length(); i++) {
+			char c = css.charAt(i);
+			if (c == '/' && i + 1 < css.length() && css.charAt(i + 1) == '*') {
+				i = endOfComment(css, i + 2);
+			} else if (c == '"' || c == '\'') {
+				if (start < 0) {
+					start = i;
+				}
+				for (i++; i < css.length() && css.charAt(i) != c; i++) {
+					if (css.charAt(i) == '\\') {
+						i++;
+					}
+				}
+			} else if (c == '{') {
+				int parent = blocks.isEmpty() ? GROUP : blocks.get(blocks.size() - 1).intValue();
+				int block;
+				if (start >= 0 && css.charAt(start) == '@') {
+					String name = atRuleName(css, start);
+					if (name.endsWith("keyframes")) {
+						block = KEYFRAMES;
+					} else if (name.equals("media") || name.equals("supports") || name.equals("layer")
+							|| name.equals("container") || name.endsWith("document")) {
+						block = GROUP;
+					} else {
+						block = AT_RULE;
+					}
+				} else if (parent == KEYFRAMES) {
+					block = KEYFRAME;
+				} else {
+					block = RULE;
+					rules++;
+					selectors += commas + 1;
+				}
+				blocks.add(Integer.valueOf(block));
+				start = -1;
+				commas = 0;
+				nesting = 0;
+			} else if (c == '}' || c == ';') {
+				if (c == '}' && !blocks.isEmpty()) {
+					blocks.remove(blocks.size() - 1);
+				}
+				start = -1;
+				commas = 0;
+				nesting = 0;
+			} else if (WHITESPACE.indexOf(c) < 0) {
+				if (start < 0) {
+					start = i;
+				}
+				if (c == '(' || c == '[') {
+					nesting++;
+				} else if (c == ')' || c == ']') {
+					nesting--;
+				} else if (c == ',' && nesting == 0) {
+					commas++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a stream writing to the output, which also gzips the written stylesheet to the gzip file, if any, and
+	 * measures its gzipped size when it is closed.
+	 */
+	OutputStream measure(OutputStream out) throws IOException {
+		if (!gzip) {
+			return out;
+		}
+		final CountingOutputStream counter = new CountingOutputStream(gzipFile == null
+				? NullOutputStream.NULL_OUTPUT_STREAM : new FileOutputStream(gzipFile));
+		final GZIPOutputStream compressed;
+		try {
+			compressed = new GZIPOutputStream(counter);
+		} catch (IOException e) {
+			counter.close();
+			throw e;
+		}
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				compressed.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				compressed.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					compressed.close();
+					gzipBytes = counter.getByteCount();
+				} finally {
+					super.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Sets the counts reported by lessc.js.
+	 */
+	void read(Map<String, String> stats) {
+		rules = Integer.parseInt(stats.get("rules"));
+		selectors = Integer.parseInt(stats.get("selectors"));
+		if (stats.containsKey("gzipBytes")) {
+			gzipBytes = Long.parseLong(stats.get("gzipBytes"));
+		}
+	}
+
+	private static String atRuleName(CharSequence css, int start) {
+		int end = start + 1;
+		while (end < css.length() && (Character.isLetterOrDigit(css.charAt(end)) || css.charAt(end) == '-')) {
+			end++;
+		}
+		return css.subSequence(start + 1, end).toString().toLowerCase();
+	}
+
+	/**
+	 * Returns the index of the slash closing the comment, or the end of the CSS if it is not closed.
+	 */
+	private static int endOfComment(CharSequence css, int from) {
+		for (int i = from; i + 1 < css.length(); i++) {
+			if (css.charAt(i) == '*' && css.charAt(i + 1) == '/') {
+				return i + 1;
+			}
+		}
+		return css.length();
+	}
+}
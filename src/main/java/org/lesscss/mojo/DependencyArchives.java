@@ -0,0 +1,403 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.lesscss.Resource;
+
+/**
+ * The LESS and CSS files in the dependency archives (JAR files) of the project, for imports which are not found
+ * relative to the importing LESS source. An entry can be imported by its path in the archive, by its path below
+ * <code>META-INF/resources</code>, and for WebJars without the version, e.g.
+ * <code>webjars/bootstrap/less/bootstrap.less</code>.
+ * <p>
+ * The entries are read from the archives without extracting them. Each archive is indexed once per execution, or not
+ * at all when its size and modification time match the index persisted by the last build. An entry keeps its last
+ * modification time while its CRC is unchanged, so rebuilding a snapshot dependency only makes the LESS sources
+ * importing its changed entries stale.
+ */
+class DependencyArchives {
+
+	private static final String META_INF_RESOURCES = "META-INF/resources/";
+
+	private static final String WEBJARS = "webjars/";
+
+	private static final String ARCHIVE = "archive.";
+
+	private static final String ENTRY = "entry.";
+
+	/** Separates the archive from the entry in the keys of the persisted index. */
+	private static final String SEPARATOR = "!/";
+
+	private final List<File> files;
+
+	private final File cacheFile;
+
+	private final Log log;
+
+	/** The entries by every path they can be imported with, the first archive on the classpath wins. */
+	private Map<String, Entry> paths;
+
+	/** The entries by their resource name, see {@link Entry#getName()}. */
+	private final Map<String, Entry> names = new HashMap<String, Entry>();
+
+	private final Map<File, ZipFile> opened = new HashMap<File, ZipFile>();
+
+	/**
+	 * @param files
+	 *            The archives, in classpath order.
+	 * @param cacheFile
+	 *            The file to persist the index to, or <code>null</code> to keep it in memory only.
+	 */
+	DependencyArchives(List<File> files, File cacheFile, Log log) {
+		this.files = files;
+		this.cacheFile = cacheFile;
+		this.log = log;
+	}
+
+	/**
+	 * Returns the resource of a LESS source, which resolves its imports in the dependency archives when they do not
+	 * exist relative to it.
+	 */
+	Resource withFallback(Resource resource) {
+		return new FallbackResource(resource);
+	}
+
+	/**
+	 * Finds a file in the dependency archives.
+	 *
+	 * @param path
+	 *            The path as written in the import statement.
+	 * @return The entry, or <code>null</code> if no archive contains it.
+	 */
+	Resource find(String path) throws IOException {
+		String normalized = FilenameUtils.normalize(path, true);
+		if (normalized == null) {
+			return null;
+		}
+		while (normalized.startsWith("/")) {
+			normalized = normalized.substring(1);
+		}
+		Entry entry = getPaths().get(normalized);
+		return entry == null ? null : new EntryResource(entry);
+	}
+
+	/**
+	 * Returns the last modification time of an entry, which is kept while its CRC is unchanged.
+	 *
+	 * @param name
+	 *            The resource name of the entry.
+	 * @return The time, or 0 if none of the archives has the entry, e.g. as the dependency changed its version.
+	 */
+	synchronized long lastModified(String name) throws IOException {
+		getPaths();
+		Entry entry = names.get(name);
+		return entry == null ? 0L : entry.lastModified;
+	}
+
+	/**
+	 * Closes the opened archives. They are opened again when an entry is read.
+	 */
+	synchronized void close() {
+		for (ZipFile zip : opened.values()) {
+			try {
+				zip.close();
+			} catch (IOException e) {
+				log.debug("Could not close " + zip.getName() + ": " + e.getMessage());
+			}
+		}
+		opened.clear();
+	}
+
+	private synchronized Map<String, Entry> getPaths() throws IOException {
+		if (paths != null) {
+			return paths;
+		}
+		long start = System.currentTimeMillis();
+		CacheProperties cache = load();
+		Map<String, Map<String, String>> cachedEntries = new HashMap<String, Map<String, String>>();
+		for (Map.Entry<String, String> property : cache.getAll().entrySet()) {
+			String key = property.getKey();
+			int separator = key.indexOf(SEPARATOR);
+			if (key.startsWith(ENTRY) && separator > 0) {
+				String archive = key.substring(ENTRY.length(), separator);
+				Map<String, String> entries = cachedEntries.get(archive);
+				if (entries == null) {
+					entries = new HashMap<String, String>();
+					cachedEntries.put(archive, entries);
+				}
+				entries.put(key.substring(separator + SEPARATOR.length()), property.getValue());
+			}
+		}
+
+		Map<String, String> index = new HashMap<String, String>();
+		paths = new HashMap<String, Entry>();
+		int indexed = 0;
+		for (File file : files) {
+			String key = file.getAbsolutePath();
+			String stamp = file.length() + ":" + file.lastModified();
+			Map<String, String> previous = cachedEntries.get(key);
+			if (previous == null) {
+				previous = new HashMap<String, String>();
+			}
+			Archive archive = new Archive(file);
+			if (!stamp.equals(cache.get(ARCHIVE + key)) || !restore(archive, previous)) {
+				indexed++;
+				for (Enumeration<? extends ZipEntry> zipEntries = open(file).entries(); zipEntries.hasMoreElements();) {
+					ZipEntry zipEntry = zipEntries.nextElement();
+					String name = zipEntry.getName();
+					if (zipEntry.isDirectory() || !(name.endsWith(".less") || name.endsWith(".css"))) {
+						continue;
+					}
+					long lastModified = file.lastModified();
+					String cached = previous.get(name);
+					if (cached != null && cached.startsWith(zipEntry.getCrc() + ":")) {
+						try {
+							lastModified = Long.parseLong(cached.substring(cached.indexOf(':') + 1));
+						} catch (NumberFormatException e) {
+							// corrupt, the entry counts as changed
+						}
+					}
+					archive.add(name, zipEntry.getCrc(), lastModified);
+				}
+			}
+			index.put(ARCHIVE + key, stamp);
+			for (Entry entry : archive.entries.values()) {
+				index.put(ENTRY + key + SEPARATOR + entry.name, entry.crc + ":" + entry.lastModified);
+				addPaths(entry);
+				names.put(entry.getName(), entry);
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Indexed " + indexed + " of " + files.size() + " dependency archives for LESS imports in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+		cache.replaceAll(index);
+		try {
+			cache.save();
+		} catch (IOException e) {
+			log.warn("Could not write the LESS dependency index: " + e.getMessage());
+		}
+		return paths;
+	}
+
+	/**
+	 * Restores the entries of an unchanged archive from the persisted index.
+	 *
+	 * @return <code>false</code> if the persisted index is corrupt and the archive has to be indexed again.
+	 */
+	private static boolean restore(Archive archive, Map<String, String> cached) {
+		try {
+			for (Map.Entry<String, String> entry : cached.entrySet()) {
+				String value = entry.getValue();
+				int colon = value.indexOf(':');
+				archive.add(entry.getKey(), Long.parseLong(value.substring(0, colon)),
+						Long.parseLong(value.substring(colon + 1)));
+			}
+			return true;
+		} catch (RuntimeException e) {
+			archive.entries.clear();
+			return false;
+		}
+	}
+
+	private void addPaths(Entry entry) {
+		addPath(entry.name, entry);
+		if (entry.name.startsWith(META_INF_RESOURCES)) {
+			String path = entry.name.substring(META_INF_RESOURCES.length());
+			addPath(path, entry);
+			if (path.startsWith(WEBJARS)) {
+				// webjars/<name>/<version>/<path>, importable without the version
+				String[] segments = path.split("/", 4);
+				if (segments.length == 4) {
+					addPath(WEBJARS + segments[1] + "/" + segments[3], entry);
+				}
+			}
+		}
+	}
+
+	private void addPath(String path, Entry entry) {
+		if (!paths.containsKey(path)) {
+			paths.put(path, entry);
+		}
+	}
+
+	private synchronized ZipFile open(File file) throws IOException {
+		ZipFile zip = opened.get(file);
+		if (zip == null) {
+			zip = new ZipFile(file);
+			opened.put(file, zip);
+		}
+		return zip;
+	}
+
+	private synchronized byte[] read(Entry entry) throws IOException {
+		ZipFile zip = open(entry.archive.file);
+		ZipEntry zipEntry = zip.getEntry(entry.name);
+		if (zipEntry == null) {
+			throw new FileNotFoundException(entry.getName() + " (changed since it was indexed)");
+		}
+		InputStream in = zip.getInputStream(zipEntry);
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private CacheProperties load() throws IOException {
+		try {
+			return new CacheProperties(cacheFile, "LESS and CSS files of the dependency archives");
+		} catch (IOException e) {
+			log.warn("Could not load the LESS dependency index " + cacheFile + ": " + e.getMessage());
+			// the archives are indexed again, and the index written anew
+			FileUtils.deleteQuietly(cacheFile);
+			return new CacheProperties(cacheFile, "LESS and CSS files of the dependency archives");
+		}
+	}
+
+	private static class Archive {
+
+		private final File file;
+
+		private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+		Archive(File file) {
+			this.file = file;
+		}
+
+		void add(String name, long crc, long lastModified) {
+			entries.put(name, new Entry(this, name, crc, lastModified));
+		}
+	}
+
+	private static class Entry {
+
+		private final Archive archive;
+
+		private final String name;
+
+		private final long crc;
+
+		private final long lastModified;
+
+		Entry(Archive archive, String name, long crc, long lastModified) {
+			this.archive = archive;
+			this.name = name;
+			this.crc = crc;
+			this.lastModified = lastModified;
+		}
+
+		String getName() {
+			return archive.file.getPath() + SEPARATOR + name;
+		}
+	}
+
+	/**
+	 * A LESS source of the project, of which the imports are looked up in the dependency archives when they do not
+	 * exist relative to it.
+	 */
+	private class FallbackResource implements Resource {
+
+		private final Resource resource;
+
+		FallbackResource(Resource resource) {
+			this.resource = resource;
+		}
+
+		public boolean exists() {
+			return resource.exists();
+		}
+
+		public long lastModified() {
+			return resource.lastModified();
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return resource.getInputStream();
+		}
+
+		public Resource createRelative(String relativeResourcePath) throws IOException {
+			Resource relative = resource.createRelative(relativeResourcePath);
+			if (relative.exists()) {
+				return new FallbackResource(relative);
+			}
+			Resource archived = find(relativeResourcePath);
+			return archived != null ? archived : relative;
+		}
+
+		public String getName() {
+			return resource.getName();
+		}
+	}
+
+	/**
+	 * A LESS or CSS file in a dependency archive. Its imports are looked up in the same archive first.
+	 */
+	private class EntryResource implements Resource {
+
+		private final Entry entry;
+
+		EntryResource(Entry entry) {
+			this.entry = entry;
+		}
+
+		public boolean exists() {
+			return true;
+		}
+
+		public long lastModified() {
+			return entry.lastModified;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return new ByteArrayInputStream(read(entry));
+		}
+
+		public Resource createRelative(String relativeResourcePath) throws IOException {
+			String directory = entry.name.substring(0, entry.name.lastIndexOf('/') + 1);
+			String name = FilenameUtils.normalize(directory + relativeResourcePath, true);
+			Entry sibling = name == null ? null : entry.archive.entries.get(name);
+			if (sibling != null) {
+				return new EntryResource(sibling);
+			}
+			Resource archived = find(relativeResourcePath);
+			if (archived == null) {
+				throw new FileNotFoundException(relativeResourcePath + " imported by " + getName());
+			}
+			return archived;
+		}
+
+		public String getName() {
+			return entry.getName();
+		}
+	}
+}
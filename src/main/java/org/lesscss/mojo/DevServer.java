@@ -0,0 +1,293 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server of watch mode, serving the latest compiled CSS stylesheets from memory by their path relative to
+ * the output directory, or from the output directory until they are recompiled. With several output directories each
+ * is served below its own path prefix. Browsers connected to
+ * <code>/events</code> are notified of every recompiled stylesheet over a long-lived server-sent events connection;
+ * <code>/livereload.js</code> swaps the stylesheets of the page. The events are written by the server threads, so a
+ * slow browser delays neither the compilation nor the other browsers.
+ */
+class DevServer {
+
+	static final String EVENTS = "/events";
+
+	static final String CLIENT = "/livereload.js";
+
+	private static final String UTF_8 = "UTF-8";
+
+	/** The number of unsent events after which a browser which does not read them is disconnected. */
+	private static final int MAX_PENDING_EVENTS = 100;
+
+	/** The output directories by the path prefix they are served below, e.g. "" or "admin/". */
+	private final Map<String, File> outputDirectories = new LinkedHashMap<String, File>();
+
+	private final Log log;
+
+	private final String contentType;
+
+	private final Map<String, byte[]> stylesheets = new ConcurrentHashMap<String, byte[]>();
+
+	private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Starts the server on the loopback interface.
+	 *
+	 * @param port
+	 *            The port, or 0 for any free port.
+	 * @param encoding
+	 *            The encoding of the CSS stylesheets, or <code>null</code> if unknown.
+	 */
+	DevServer(int port, String encoding, File outputDirectory, Log log) throws IOException {
+		this(port, encoding, Collections.singletonMap("", outputDirectory), log);
+	}
+
+	/**
+	 * Starts the server on the loopback interface, serving several output directories.
+	 *
+	 * @param outputDirectories
+	 *            The output directories by the path prefix they are served below, ending with a slash unless empty.
+	 */
+	DevServer(int port, String encoding, Map<String, File> outputDirectories, Log log) throws IOException {
+		for (Map.Entry<String, File> entry : outputDirectories.entrySet()) {
+			this.outputDirectories.put(entry.getKey(), entry.getValue().getCanonicalFile());
+		}
+		this.log = log;
+		this.contentType = "text/css" + (encoding == null ? "" : "; charset=" + encoding);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), port), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				if (EVENTS.equals(path)) {
+					subscribe(exchange);
+				} else if (CLIENT.equals(path)) {
+					send(exchange, "application/javascript; charset=" + UTF_8, getClient());
+				} else {
+					byte[] css = stylesheets.get(path.substring(1));
+					if (css == null) {
+						css = read(path.substring(1));
+					}
+					if (css == null) {
+						exchange.sendResponseHeaders(404, -1);
+						exchange.close();
+					} else {
+						send(exchange, contentType, css);
+					}
+				}
+			}
+		});
+		// serves the requests and writes the events; a connected browser holds no thread while it waits for events
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "lesscss-dev-server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Serves the CSS stylesheet from now on and notifies the connected browsers, without waiting for them.
+	 *
+	 * @param path
+	 *            The path of the stylesheet relative to the output directory, with forward slashes and below the
+	 *            prefix of its output directory.
+	 */
+	void publish(String path, byte[] css) {
+		stylesheets.put(path, css);
+		byte[] event;
+		try {
+			event = ("event: css\ndata: " + path + "\n\n").getBytes(UTF_8);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		for (Client client : clients) {
+			client.send(event);
+		}
+	}
+
+	void stop() {
+		for (Client client : clients) {
+			IOUtils.closeQuietly(client.out);
+		}
+		clients.clear();
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void subscribe(HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+		// a chunked response, kept open for the events
+		exchange.sendResponseHeaders(200, 0);
+		Client client = new Client(exchange.getResponseBody());
+		// subscribed first, so no event published after the browser has seen the comment is missed
+		clients.add(client);
+		client.send(": connected\n\n".getBytes(UTF_8));
+		log.debug("Browser connected to the LESS dev server: " + exchange.getRemoteAddress());
+	}
+
+	/**
+	 * Reads a stylesheet which has not been recompiled yet from its output directory.
+	 *
+	 * @return The stylesheet, or <code>null</code> if it does not exist.
+	 */
+	private byte[] read(String path) throws IOException {
+		for (Map.Entry<String, File> entry : outputDirectories.entrySet()) {
+			if (!path.startsWith(entry.getKey())) {
+				continue;
+			}
+			File outputDirectory = entry.getValue();
+			File file = new File(outputDirectory, path.substring(entry.getKey().length())).getCanonicalFile();
+			if (file.getName().endsWith(".css")
+					&& file.getPath().startsWith(outputDirectory.getPath() + File.separator) && file.isFile()) {
+				return FileUtils.readFileToByteArray(file);
+			}
+		}
+		return null;
+	}
+
+	private static void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] getClient() throws IOException {
+		InputStream in = DevServer.class.getResourceAsStream("js/livereload.js");
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * A connected browser. Its events are queued and written in order by one server thread at a time.
+	 */
+	private class Client implements Runnable {
+
+		private final OutputStream out;
+
+		private final LinkedList<byte[]> events = new LinkedList<byte[]>();
+
+		private boolean writing;
+
+		Client(OutputStream out) {
+			this.out = out;
+		}
+
+		synchronized void send(byte[] event) {
+			if (events.size() >= MAX_PENDING_EVENTS) {
+				// the browser does not read its events
+				events.clear();
+				disconnect();
+				return;
+			}
+			events.addLast(event);
+			if (!writing) {
+				writing = true;
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// the server has stopped
+					writing = false;
+				}
+			}
+		}
+
+		public void run() {
+			while (true) {
+				byte[] event;
+				synchronized (this) {
+					if (events.isEmpty()) {
+						writing = false;
+						return;
+					}
+					event = events.removeFirst();
+				}
+				try {
+					out.write(event);
+					out.flush();
+				} catch (IOException e) {
+					// the browser has gone
+					clients.remove(this);
+					IOUtils.closeQuietly(out);
+					return;
+				}
+			}
+		}
+
+		private void disconnect() {
+			clients.remove(this);
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						// may block until the browser's connection times out, so not on the caller's thread
+						IOUtils.closeQuietly(out);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the server has stopped and closed the connection
+			}
+		}
+	}
+}
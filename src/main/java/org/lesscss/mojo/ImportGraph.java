@@ -0,0 +1,128 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.lesscss.LessSource;
+
+/**
+ * The imports of the LESS sources, keyed by their path relative to the source directory with <code>/</code> as
+ * separator. A LESS source imported along several paths is a single node of the graph.
+ */
+class ImportGraph {
+
+	/** The imports of each LESS source, by path. */
+	private final Map<String, List<String>> imports = new LinkedHashMap<String, List<String>>();
+
+	/** The imports of each LESS source as written in its import statements. */
+	private final Map<String, List<String>> importNames = new LinkedHashMap<String, List<String>>();
+
+	/** The resource names of the LESS sources, by path. */
+	private final Map<String, String> sourceNames = new HashMap<String, String>();
+
+	/**
+	 * Returns the path of the file relative to the source directory, as used by the graph.
+	 */
+	static String toPath(String file) {
+		return file.replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Adds the LESS source and its imports to the graph. A LESS source already in the graph is not traversed again.
+	 */
+	void add(LessSource lessSource, String path) {
+		if (imports.containsKey(path)) {
+			return;
+		}
+		List<String> paths = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		imports.put(path, paths);
+		importNames.put(path, names);
+		sourceNames.put(path, lessSource.getName());
+		int slash = path.lastIndexOf('/');
+		String directory = slash < 0 ? "" : path.substring(0, slash + 1);
+		for (Entry<String, LessSource> entry : lessSource.getImports().entrySet()) {
+			String importPath = FilenameUtils.normalize(directory + entry.getKey(), true);
+			if (importPath == null) {
+				importPath = directory + entry.getKey();
+			}
+			paths.add(importPath);
+			names.add(entry.getKey());
+			add(entry.getValue(), importPath);
+		}
+	}
+
+	boolean contains(String path) {
+		return imports.containsKey(path);
+	}
+
+	/**
+	 * Returns the name of the resource the LESS source was read from, e.g. the entry of a dependency archive.
+	 */
+	String getSourceName(String path) {
+		return sourceNames.get(path);
+	}
+
+	/**
+	 * Returns the paths of the LESS sources in the graph, in the order they were added.
+	 */
+	Set<String> getPaths() {
+		return Collections.unmodifiableSet(imports.keySet());
+	}
+
+	/**
+	 * Returns the paths of the direct imports of the LESS source.
+	 */
+	List<String> getImports(String path) {
+		List<String> paths = imports.get(path);
+		return paths == null ? Collections.<String> emptyList() : paths;
+	}
+
+	/**
+	 * Returns the direct imports of the LESS source as written in its import statements.
+	 */
+	List<String> getImportNames(String path) {
+		List<String> names = importNames.get(path);
+		return names == null ? Collections.<String> emptyList() : names;
+	}
+
+	/**
+	 * Returns the paths of the direct and indirect imports of the LESS source.
+	 */
+	Set<String> getTransitiveImports(String path) {
+		Set<String> transitiveImports = new LinkedHashSet<String>();
+		collectImports(path, transitiveImports);
+		return transitiveImports;
+	}
+
+	private void collectImports(String path, Set<String> transitiveImports) {
+		for (String importPath : getImports(path)) {
+			if (transitiveImports.add(importPath)) {
+				collectImports(importPath, transitiveImports);
+			}
+		}
+	}
+}
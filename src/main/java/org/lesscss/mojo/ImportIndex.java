@@ -0,0 +1,127 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Index of the direct and indirect imports of the compiled LESS sources, by path relative to the source directory.
+ * It is persisted between builds, so an incremental build can tell which LESS sources are affected by the changed
+ * files without resolving the imports of all of them. Imports found in a dependency archive are recorded with the
+ * name of their entry.
+ */
+class ImportIndex {
+
+	/** Prefixes the paths of the imports found in dependency archives, which are never a relative path. */
+	private static final String ARCHIVED = "/";
+
+	/** The persisted imports, separated by newlines, and the archive entries by prefixed path. */
+	private final CacheProperties properties;
+
+	private final Map<String, Set<String>> imports = new TreeMap<String, Set<String>>();
+
+	/**
+	 * Creates the index, loading it from the file if it exists.
+	 *
+	 * @param file
+	 *            The file to persist the index to, or <code>null</code> to keep it in memory only.
+	 */
+	ImportIndex(File file) throws IOException {
+		properties = new CacheProperties(file, "LESS imports by source");
+		for (Map.Entry<String, String> entry : properties.getAll().entrySet()) {
+			if (entry.getKey().startsWith(ARCHIVED)) {
+				continue;
+			}
+			Set<String> paths = new LinkedHashSet<String>();
+			for (String path : StringUtils.split(entry.getValue(), "\n")) {
+				paths.add(path);
+			}
+			imports.put(entry.getKey(), paths);
+		}
+	}
+
+	synchronized boolean isEmpty() {
+		return imports.isEmpty();
+	}
+
+	synchronized boolean contains(String root) {
+		return imports.containsKey(root);
+	}
+
+	/**
+	 * Returns the direct and indirect imports of the LESS source, or an empty set if it is not indexed.
+	 */
+	synchronized Set<String> getImports(String root) {
+		Set<String> paths = imports.get(root);
+		return paths == null ? Collections.<String> emptySet() : Collections.unmodifiableSet(paths);
+	}
+
+	synchronized void put(String root, Collection<String> paths) {
+		imports.put(root, new LinkedHashSet<String>(paths));
+		properties.put(root, StringUtils.join(paths.iterator(), "\n"));
+	}
+
+	/**
+	 * Returns the name of the dependency archive entry the import was found in, or <code>null</code> if it was not.
+	 */
+	synchronized String getArchivedName(String path) {
+		return properties.get(ARCHIVED + path);
+	}
+
+	synchronized void putArchivedName(String path, String name) {
+		properties.put(ARCHIVED + path, name);
+	}
+
+	synchronized void remove(String root) {
+		imports.remove(root);
+		properties.remove(root);
+	}
+
+	/**
+	 * Returns the indexed LESS sources which are one of the given paths or import one of them.
+	 */
+	synchronized Set<String> getAffectedRoots(Collection<String> paths) {
+		Set<String> roots = new LinkedHashSet<String>();
+		for (Map.Entry<String, Set<String>> entry : imports.entrySet()) {
+			if (paths.contains(entry.getKey())) {
+				roots.add(entry.getKey());
+				continue;
+			}
+			for (String path : paths) {
+				if (entry.getValue().contains(path)) {
+					roots.add(entry.getKey());
+					break;
+				}
+			}
+		}
+		return roots;
+	}
+
+	/**
+	 * Writes the index to its file if it has been modified.
+	 */
+	void save() throws IOException {
+		properties.save();
+	}
+}
@@ -0,0 +1,174 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the documents exchanged with the NodeJS compiler and written for external tooling.
+ */
+final class Json {
+
+	private Json() {
+	}
+
+	/**
+	 * Quotes and escapes the string as a JSON string literal, or returns <code>null</code> for a null string.
+	 */
+	static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the map as a JSON object with string values, one member per line.
+	 */
+	static String writeObject(Map<String, String> members) {
+		StringBuilder sb = new StringBuilder("{");
+		for (Iterator<Map.Entry<String, String>> it = members.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, String> member = it.next();
+			sb.append("\n  ").append(quote(member.getKey())).append(": ").append(quote(member.getValue()));
+			if (it.hasNext()) {
+				sb.append(',');
+			}
+		}
+		return sb.append("\n}\n").toString();
+	}
+
+	/**
+	 * Parses a JSON object with string values, as written by {@link #writeObject(Map)}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the JSON is not an object with string values.
+	 */
+	static Map<String, String> parseObject(String json) {
+		Parser parser = new Parser(json);
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		parser.expect('{');
+		if (!parser.consume('}')) {
+			do {
+				String key = parser.string();
+				parser.expect(':');
+				members.put(key, parser.string());
+			} while (parser.consume(','));
+			parser.expect('}');
+		}
+		return members;
+	}
+
+	private static class Parser {
+
+		private final String json;
+
+		private int pos;
+
+		Parser(String json) {
+			this.json = json;
+		}
+
+		boolean consume(char c) {
+			skipWhitespace();
+			if (pos < json.length() && json.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		void expect(char c) {
+			if (!consume(c)) {
+				throw new IllegalArgumentException("Expected '" + c + "' at position " + pos);
+			}
+		}
+
+		String string() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (pos < json.length()) {
+				char c = json.charAt(pos++);
+				if (c == '"') {
+					return sb.toString();
+				} else if (c == '\\' && pos < json.length()) {
+					char escaped = json.charAt(pos++);
+					switch (escaped) {
+					case 'n':
+						sb.append('\n');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'b':
+						sb.append('\b');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					case 'u':
+						sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+						pos += 4;
+						break;
+					default:
+						sb.append(escaped);
+					}
+				} else {
+					sb.append(c);
+				}
+			}
+			throw new IllegalArgumentException("Unterminated string");
+		}
+
+		private void skipWhitespace() {
+			while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+}
@@ -0,0 +1,472 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+
+/**
+ * Pool of LESS compilers shared by the worker threads of an execution.
+ * <p>
+ * A Rhino {@link LessCompiler} can only be used by one thread at a time, so the pool hands out one per worker and per
+ * compress flag. A {@link NodeJsLessCompiler} starts a process per compilation and is shared by all workers.
+ * <p>
+ * Rhino compilers retain heap across compilations, so in long watch sessions they can be recycled after a number of
+ * compilations, or when the heap retained after garbage collection crosses a threshold. A standby compiler is created
+ * and warmed up in the background to replace the recycled one, so the next compilation does not pay for loading
+ * less.js: it is started a compilation before the limit, and a compiler recycled for the heap keeps compiling until
+ * its standby is ready. Each crossing of the heap threshold recycles the compilers once; it counts again after the
+ * retained heap has dropped {@value #HEAP_HYSTERESIS_PERCENT} percent below the threshold.
+ */
+class LessCompilerPool {
+
+	/**
+	 * Creates the LESS compilers of the pool.
+	 */
+	interface Factory {
+
+		Object createLessCompiler(boolean compress) throws MojoExecutionException;
+	}
+
+	private final Factory factory;
+
+	private final ExecutorService executor;
+
+	private final long timeout;
+
+	private final Map<Boolean, LinkedList<Object>> idleLessCompilers = new HashMap<Boolean, LinkedList<Object>>();
+
+	private NodeJsLessCompiler nodeJsLessCompiler;
+
+	/** The LESS to compile to warm up a standby compiler. */
+	private static final String WARM_UP = "@color: #000; .warm-up { color: lighten(@color, 10%); }";
+
+	/** The number of compilations before the limit at which the standby compiler is started. */
+	private static final int STANDBY_LEAD = 1;
+
+	/** How far below the threshold the retained heap has to drop before crossing it recycles the compilers again. */
+	static final int HEAP_HYSTERESIS_PERCENT = 10;
+
+	private int recycleAfter;
+
+	private int recycleHeapPercent;
+
+	private final Map<Object, Usage> usages = new IdentityHashMap<Object, Usage>();
+
+	private final Map<Boolean, Integer> pendingStandbys = new HashMap<Boolean, Integer>();
+
+	private ExecutorService standbyExecutor;
+
+	/** The number of garbage collections when the retained heap was last checked. */
+	private long checkedGarbageCollections;
+
+	private boolean heapAboveThreshold;
+
+	/** The number of times the retained heap has crossed the threshold. */
+	private int heapCrossings;
+
+	private boolean closed;
+
+	/**
+	 * @param timeout
+	 *            The number of milliseconds a Rhino compilation may take, 0 for no limit. Requires
+	 *            {@link CompileDeadline} to be installed.
+	 */
+	LessCompilerPool(Factory factory, int threads, long timeout) {
+		this.factory = factory;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Recycles the Rhino compilers after a number of compilations, or when the heap retained after the last garbage
+	 * collection crosses a percentage of the maximum heap.
+	 * 
+	 * @param recycleAfter
+	 *            The number of compilations after which a Rhino compiler is replaced, 0 for no limit.
+	 * @param recycleHeapPercent
+	 *            The percentage of the maximum heap, 0 for no limit.
+	 */
+	synchronized void setRecycling(int recycleAfter, int recycleHeapPercent) {
+		this.recycleAfter = recycleAfter;
+		this.recycleHeapPercent = recycleHeapPercent;
+	}
+
+	synchronized Object borrow(boolean compress) throws MojoExecutionException, InterruptedException {
+		if (nodeJsLessCompiler != null) {
+			return nodeJsLessCompiler;
+		}
+		LinkedList<Object> idle = getIdleLessCompilers(compress);
+		while (idle.isEmpty() && getPendingStandbys(compress) > 0) {
+			// the standby compiler is further along than a new one would be
+			wait();
+		}
+		if (!idle.isEmpty()) {
+			return idle.removeFirst();
+		}
+		Object lessCompiler = factory.createLessCompiler(compress);
+		if (lessCompiler instanceof NodeJsLessCompiler) {
+			nodeJsLessCompiler = (NodeJsLessCompiler) lessCompiler;
+		}
+		return lessCompiler;
+	}
+
+	synchronized void release(boolean compress, Object lessCompiler) {
+		if (lessCompiler != nodeJsLessCompiler) {
+			getIdleLessCompilers(compress).addLast(lessCompiler);
+		}
+	}
+
+	/**
+	 * Releases the Rhino compiler after a compilation, or replaces it by a standby compiler if it is due for recycling.
+	 */
+	private synchronized void compiled(boolean compress, Object lessCompiler) {
+		if (recycleAfter <= 0 && recycleHeapPercent <= 0) {
+			release(compress, lessCompiler);
+			return;
+		}
+		Usage usage = usages.get(lessCompiler);
+		if (usage == null) {
+			usage = new Usage(heapCrossings);
+			usages.put(lessCompiler, usage);
+		}
+		usage.compilations++;
+		if (recycleAfter > 0 && usage.compilations >= recycleAfter) {
+			// usually the standby is warm by now, otherwise borrow waits for it
+			usages.remove(lessCompiler);
+			startStandby(compress, usage);
+			return;
+		}
+		if (recycleAfter > 0 && usage.compilations >= recycleAfter - STANDBY_LEAD) {
+			startStandby(compress, usage);
+		}
+		if (recycleHeapPercent > 0 && isHeapCrossed(usage)) {
+			usage.retiring = true;
+			startStandby(compress, usage);
+		}
+		if (usage.retiring && getPendingStandbys(compress) == 0) {
+			// replaced by the standby
+			usages.remove(lessCompiler);
+		} else {
+			release(compress, lessCompiler);
+		}
+	}
+
+	/**
+	 * Returns whether the retained heap has crossed the threshold since the compiler was created. The heap is checked
+	 * again after each garbage collection.
+	 */
+	private boolean isHeapCrossed(Usage usage) {
+		long collections = getGarbageCollections();
+		if (collections > checkedGarbageCollections) {
+			checkedGarbageCollections = collections;
+			long retained = getRetainedHeapPercent();
+			if (!heapAboveThreshold && retained >= recycleHeapPercent) {
+				heapAboveThreshold = true;
+				heapCrossings++;
+			} else if (heapAboveThreshold && retained < recycleHeapPercent - HEAP_HYSTERESIS_PERCENT) {
+				heapAboveThreshold = false;
+			}
+		}
+		return usage.heapCrossings < heapCrossings;
+	}
+
+	private synchronized void discard(Object lessCompiler) {
+		usages.remove(lessCompiler);
+	}
+
+	/**
+	 * Creates and warms up a LESS compiler in the background to replace the used one, and adds it to the idle
+	 * compilers. Only one standby is started per used compiler.
+	 */
+	private void startStandby(final boolean compress, Usage usage) {
+		if (closed || usage.standbyStarted) {
+			return;
+		}
+		usage.standbyStarted = true;
+		if (standbyExecutor == null) {
+			standbyExecutor = Executors.newSingleThreadExecutor();
+		}
+		pendingStandbys.put(Boolean.valueOf(compress), Integer.valueOf(getPendingStandbys(compress) + 1));
+		standbyExecutor.submit(new Runnable() {
+			public void run() {
+				Object lessCompiler = null;
+				try {
+					lessCompiler = factory.createLessCompiler(compress);
+					((LessCompiler) lessCompiler).compile(WARM_UP);
+				} catch (Exception e) {
+					// borrow creates a compiler again and reports the failure
+					lessCompiler = null;
+				} finally {
+					standbyCreated(compress, lessCompiler);
+				}
+			}
+		});
+	}
+
+	private synchronized void standbyCreated(boolean compress, Object lessCompiler) {
+		pendingStandbys.put(Boolean.valueOf(compress), Integer.valueOf(getPendingStandbys(compress) - 1));
+		if (lessCompiler != null && !closed) {
+			usages.put(lessCompiler, new Usage(heapCrossings));
+			getIdleLessCompilers(compress).addLast(lessCompiler);
+		}
+		if (getPendingStandbys(compress) == 0) {
+			// the idle compilers recycled for the heap are replaced now, the others when they are released
+			for (Iterator<Object> idle = getIdleLessCompilers(compress).iterator(); idle.hasNext();) {
+				Object retiring = idle.next();
+				Usage usage = usages.get(retiring);
+				if (usage != null && usage.retiring) {
+					usages.remove(retiring);
+					idle.remove();
+				}
+			}
+		}
+		notifyAll();
+	}
+
+	private int getPendingStandbys(boolean compress) {
+		Integer pending = pendingStandbys.get(Boolean.valueOf(compress));
+		return pending == null ? 0 : pending.intValue();
+	}
+
+	/**
+	 * Returns the heap retained after the last garbage collection of each heap pool, as a percentage of the maximum
+	 * heap.
+	 */
+	private static long getRetainedHeapPercent() {
+		long retained = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+			if (usage != null) {
+				retained += usage.getUsed();
+			}
+		}
+		return retained * 100 / Runtime.getRuntime().maxMemory();
+	}
+
+	private static long getGarbageCollections() {
+		long collections = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			collections += Math.max(0, collector.getCollectionCount());
+		}
+		return collections;
+	}
+
+	/**
+	 * Compiles the LESS source for each of the output variants and writes the CSS stylesheets to the files. The NodeJS
+	 * compiler parses the source once and renders all variants from it. The Rhino compiler compiles each distinct
+	 * combination of compress flag and variable overrides once, in parallel on the worker threads.
+	 * 
+	 * @param files
+	 *            The files to write the CSS stylesheets to, in the order of the variants.
+	 * @param stats
+	 *            The statistics to measure of the CSS stylesheets, in the order of the variants, or <code>null</code>.
+	 */
+	void compile(final LessSource lessSource, List<OutputVariant> variants, List<File> files, final String encoding,
+			List<CssStats> stats) throws MojoExecutionException, IOException, LessException, InterruptedException {
+		Object lessCompiler = borrow(variants.get(0).isCompress());
+		if (lessCompiler instanceof NodeJsLessCompiler) {
+			List<Boolean> compress = new ArrayList<Boolean>();
+			List<String> variableOverrides = new ArrayList<String>();
+			for (OutputVariant variant : variants) {
+				compress.add(Boolean.valueOf(variant.isCompress()));
+				variableOverrides.add(variant.getVariableOverrides());
+			}
+			((NodeJsLessCompiler) lessCompiler).compile(lessSource, compress, variableOverrides, files, stats);
+			return;
+		}
+		release(variants.get(0).isCompress(), lessCompiler);
+
+		final Map<File, CssStats> statsByFile = new HashMap<File, CssStats>();
+		for (int i = 0; stats != null && i < files.size(); i++) {
+			statsByFile.put(files.get(i), stats.get(i));
+		}
+
+		Map<String, List<File>> filesByKey = new LinkedHashMap<String, List<File>>();
+		Map<String, OutputVariant> variantsByKey = new HashMap<String, OutputVariant>();
+		for (int i = 0; i < variants.size(); i++) {
+			String key = variants.get(i).isCompress() + ":" + variants.get(i).getVariableOverrides();
+			if (!filesByKey.containsKey(key)) {
+				filesByKey.put(key, new ArrayList<File>());
+				variantsByKey.put(key, variants.get(i));
+			}
+			filesByKey.get(key).add(files.get(i));
+		}
+		if (filesByKey.size() == 1) {
+			OutputVariant variant = variants.get(0);
+			write(compile(lessSource, variant.isCompress(), variant.getVariableOverrides()), files, encoding,
+					statsByFile);
+			return;
+		}
+
+		List<Future<String>> stylesheets = new ArrayList<Future<String>>();
+		for (Map.Entry<String, List<File>> entry : filesByKey.entrySet()) {
+			final boolean compress = variantsByKey.get(entry.getKey()).isCompress();
+			final String variableOverrides = variantsByKey.get(entry.getKey()).getVariableOverrides();
+			final List<File> keyFiles = entry.getValue();
+			stylesheets.add(executor.submit(new Callable<String>() {
+				public String call() throws Exception {
+					// the CSS is written by the worker, so only the stylesheets in progress are held in memory
+					write(compile(lessSource, compress, variableOverrides), keyFiles, encoding, statsByFile);
+					return null;
+				}
+			}));
+		}
+		for (Future<String> stylesheet : stylesheets) {
+			get(stylesheet);
+		}
+	}
+
+	/**
+	 * Compiles the LESS source without writing the CSS stylesheet, e.g. to check that it evaluates.
+	 */
+	String evaluate(LessSource lessSource, boolean compress) throws MojoExecutionException, IOException,
+			LessException, InterruptedException {
+		Object lessCompiler = borrow(compress);
+		if (lessCompiler instanceof NodeJsLessCompiler) {
+			return ((NodeJsLessCompiler) lessCompiler).compile(lessSource);
+		}
+		release(compress, lessCompiler);
+		return compile(lessSource, compress, null);
+	}
+
+	private static void write(String css, List<File> files, String encoding, Map<File, CssStats> stats)
+			throws IOException {
+		for (File file : files) {
+			if (stats.containsKey(file)) {
+				CssFiles.write(file, css, encoding, stats.get(file));
+			} else {
+				CssFiles.write(file, css, encoding);
+			}
+		}
+	}
+
+	private String compile(LessSource lessSource, boolean compress, String variableOverrides)
+			throws MojoExecutionException, LessException, InterruptedException {
+		LessCompiler lessCompiler = (LessCompiler) borrow(compress);
+		if (timeout > 0) {
+			CompileDeadline.begin(timeout);
+		}
+		try {
+			String css;
+			if (variableOverrides == null) {
+				css = lessCompiler.compile(lessSource);
+			} else {
+				// the last definition of a LESS variable wins, so appending the overrides is enough
+				css = lessCompiler.compile(lessSource.getNormalizedContent() + "\n" + variableOverrides);
+			}
+			compiled(compress, lessCompiler);
+			return css;
+		} catch (LessException e) {
+			compiled(compress, lessCompiler);
+			throw e;
+		} catch (CompileDeadline.Expired e) {
+			// the aborted compiler may be left in any state, so it is not released
+			discard(lessCompiler);
+			throw new LessException("Compilation timed out after " + timeout + " ms", e);
+		} finally {
+			CompileDeadline.end();
+		}
+	}
+
+	private String get(Future<String> stylesheet) throws MojoExecutionException, IOException, LessException,
+			InterruptedException {
+		try {
+			return stylesheet.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof MojoExecutionException) {
+				throw (MojoExecutionException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof LessException) {
+				throw (LessException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new MojoExecutionException(cause.getMessage(), cause);
+		}
+	}
+
+	private LinkedList<Object> getIdleLessCompilers(boolean compress) {
+		LinkedList<Object> idle = idleLessCompilers.get(Boolean.valueOf(compress));
+		if (idle == null) {
+			idle = new LinkedList<Object>();
+			idleLessCompilers.put(Boolean.valueOf(compress), idle);
+		}
+		return idle;
+	}
+
+	synchronized void close() {
+		closed = true;
+		executor.shutdownNow();
+		if (standbyExecutor != null) {
+			standbyExecutor.shutdownNow();
+		}
+		usages.clear();
+		pendingStandbys.clear();
+		notifyAll();
+		if (nodeJsLessCompiler != null) {
+			nodeJsLessCompiler.close();
+			nodeJsLessCompiler = null;
+		}
+		idleLessCompilers.clear();
+	}
+
+	/**
+	 * The use of a Rhino compiler since it was created.
+	 */
+	private static class Usage {
+
+		private int compilations;
+
+		/** The number of heap threshold crossings when the compiler was created. */
+		private final int heapCrossings;
+
+		private boolean standbyStarted;
+
+		/** Whether the compiler is recycled for the heap, and compiles only until its standby is ready. */
+		private boolean retiring;
+
+		Usage(int heapCrossings) {
+			this.heapCrossings = heapCrossings;
+		}
+	}
+}
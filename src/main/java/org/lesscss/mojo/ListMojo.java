@@ -17,10 +17,14 @@ package org.lesscss.mojo;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.lesscss.LessSource;
 
@@ -32,6 +36,28 @@ import org.lesscss.LessSource;
  */
 public class ListMojo extends AbstractLessCssMojo {
 
+	/**
+	 * The format of the listing: <code>tree</code> for the indented import tree, <code>json</code> or
+	 * <code>dot</code> (Graphviz) for the import graph.
+	 * 
+	 * @parameter expression="${lesscss.listFormat}" default-value="tree"
+	 */
+	private String format = "tree";
+
+	/**
+	 * The file to write the listing to. By default the listing is logged.
+	 * 
+	 * @parameter expression="${lesscss.listOutputFile}"
+	 */
+	private File outputFile;
+
+	private final ImportGraph graph = new ImportGraph();
+
+	/** The LESS sources of which the imports have been listed. */
+	private final Set<String> listed = new HashSet<String>();
+
+	private final List<String> lines = new ArrayList<String>();
+
 	/**
 	 * Execute the MOJO.
 	 * 
@@ -50,23 +76,50 @@ public class ListMojo extends AbstractLessCssMojo {
 		if (files == null || files.length < 1) {
 			getLog().info("No LESS sources found");
 		} else {
-			getLog().info("The following LESS sources have been resolved:");
-
-			for (String file : files) {
-				File lessFile = new File(sourceDirectory, file);
-				try {
-					LessSource lessSource = new LessSource(lessFile);
-					listLessSource(lessSource, file, 0, false);
-				} catch (FileNotFoundException e) {
-					throw new MojoExecutionException("Error while loading LESS source: " + lessFile.getAbsolutePath(), e);
-				} catch (IOException e) {
-					throw new MojoExecutionException("Error while loading LESS source: " + lessFile.getAbsolutePath(), e);
+			if (!"tree".equals(format) && !"json".equals(format) && !"dot".equals(format)) {
+				throw new MojoExecutionException("Unknown list format: " + format);
+			}
+			if ("tree".equals(format) && outputFile == null) {
+				getLog().info("The following LESS sources have been resolved:");
+			}
+
+			List<String> roots = new ArrayList<String>();
+			try {
+				for (String file : files) {
+					File lessFile = new File(sourceDirectory, file);
+					try {
+						LessSource lessSource = newLessSource(lessFile);
+						String path = ImportGraph.toPath(file);
+						roots.add(path);
+						graph.add(lessSource, path);
+						listLessSource(path, file, 0, false);
+					} catch (FileNotFoundException e) {
+						throw new MojoExecutionException("Error while loading LESS source: " + lessFile.getAbsolutePath(), e);
+					} catch (IOException e) {
+						throw new MojoExecutionException("Error while loading LESS source: " + lessFile.getAbsolutePath(), e);
+					}
 				}
+			} finally {
+				closeDependencyArchives();
 			}
+
+			if ("json".equals(format)) {
+				writeJson(roots);
+			} else if ("dot".equals(format)) {
+				writeDot(roots);
+			}
+			print();
 		}
 	}
 
-	private void listLessSource(LessSource lessSource, String path, int level, boolean last) {
+	/**
+	 * Lists the LESS source and its imports as a tree. The imports of a LESS source are only listed the first time it
+	 * occurs, later occurrences refer back to it.
+	 */
+	private void listLessSource(String path, String name, int level, boolean last) {
+		if (!"tree".equals(format)) {
+			return;
+		}
 		String prefix = "";
 		if (level > 0) {
 			for (int i = 1; i <= level; i++) {
@@ -80,12 +133,63 @@ public class ListMojo extends AbstractLessCssMojo {
 			}
 		}
 
-		getLog().info(prefix + path);
+		List<String> imports = graph.getImports(path);
+		if (!listed.add(path) && !imports.isEmpty()) {
+			lines.add(prefix + name + " (see above)");
+			return;
+		}
+		lines.add(prefix + name);
+
+		List<String> names = graph.getImportNames(path);
+		for (int i = 0; i < imports.size(); i++) {
+			listLessSource(imports.get(i), names.get(i), level + 1, i == imports.size() - 1);
+		}
+	}
+
+	private void writeJson(List<String> roots) {
+		StringBuilder json = new StringBuilder("{\n  \"roots\": [");
+		for (int i = 0; i < roots.size(); i++) {
+			json.append(i > 0 ? ", " : "").append(Json.quote(roots.get(i)));
+		}
+		json.append("],\n  \"imports\": {");
+		for (Iterator<String> it = graph.getPaths().iterator(); it.hasNext();) {
+			String path = it.next();
+			List<String> imports = graph.getImports(path);
+			json.append("\n    ").append(Json.quote(path)).append(": [");
+			for (int i = 0; i < imports.size(); i++) {
+				json.append(i > 0 ? ", " : "").append(Json.quote(imports.get(i)));
+			}
+			json.append(it.hasNext() ? "]," : "]");
+		}
+		json.append("\n  }\n}");
+		lines.add(json.toString());
+	}
+
+	private void writeDot(List<String> roots) {
+		lines.add("digraph imports {");
+		for (String root : roots) {
+			lines.add("  " + Json.quote(root) + " [shape=box];");
+		}
+		for (String path : graph.getPaths()) {
+			for (String importPath : graph.getImports(path)) {
+				lines.add("  " + Json.quote(path) + " -> " + Json.quote(importPath) + ";");
+			}
+		}
+		lines.add("}");
+	}
 
-		Iterator<Entry<String, LessSource>> it = lessSource.getImports().entrySet().iterator();
-		while (it.hasNext()) {
-			Entry<String, LessSource> entry = it.next();
-			listLessSource(entry.getValue(), entry.getKey(), level + 1, !it.hasNext());
+	private void print() throws MojoExecutionException {
+		if (outputFile == null) {
+			for (String line : lines) {
+				getLog().info(line);
+			}
+		} else {
+			try {
+				FileUtils.writeLines(outputFile, "UTF-8", lines);
+			} catch (IOException e) {
+				throw new MojoExecutionException("Error while writing " + outputFile.getAbsolutePath(), e);
+			}
+			getLog().info("The LESS sources have been listed to " + outputFile.getAbsolutePath());
 		}
 	}
 }
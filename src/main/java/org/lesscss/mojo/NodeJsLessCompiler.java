@@ -15,12 +15,20 @@
 package org.lesscss.mojo;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -32,6 +40,7 @@ public class NodeJsLessCompiler {
 
   private static final List<String> resources = Arrays.asList(
       "lessc.js",
+      "code-cache.js",
       "less/visitor.js",
       "less/tree.js",
       "less/to-css-visitor.js",
@@ -77,6 +86,9 @@ public class NodeJsLessCompiler {
       "less/tree/anonymous.js",
       "less/tree/alpha.js");
 
+  /** The encoding of the CSS written by lessc.js. */
+  private static final String NODE_ENCODING = "UTF-8";
+
   private final Log log;
 
   private final boolean compress;
@@ -87,6 +99,15 @@ public class NodeJsLessCompiler {
 
   private final String nodeExecutablePath;
 
+  /** The SHA-1 of the resources, which keys the V8 code cache. */
+  private final String resourceDigest;
+
+  private long timeout;
+
+  private File codeCache;
+
+  private Timer watchdog;
+
   public NodeJsLessCompiler(boolean compress, String encoding, Log log) throws IOException {
     this("node", compress, encoding, log);
   }
@@ -100,17 +121,52 @@ public class NodeJsLessCompiler {
 
     tempDir = createTempDir("lessc");
     new File(tempDir, "less/tree").mkdirs();
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not supported by the JVM", e);
+    }
     for (String resource : resources) {
-      InputStream in = NodeJsLessCompiler.class.getClassLoader()
-          .getResourceAsStream("org/lesscss/mojo/js/" + resource);
+      digest.update(resource.getBytes(NODE_ENCODING));
+      InputStream in = new DigestInputStream(NodeJsLessCompiler.class.getClassLoader()
+          .getResourceAsStream("org/lesscss/mojo/js/" + resource), digest);
       FileOutputStream out = new FileOutputStream(new File(tempDir, resource));
       IOUtils.copy(in, out);
       in.close();
       out.close();
     }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+    }
+    resourceDigest = hex.toString();
+  }
+
+  /**
+   * Sets the directory where node keeps the less.js sources as a single bundle with its V8 code cache, so a node
+   * process neither resolves the modules nor parses and compiles them at every start. The cache is kept per digest of
+   * the resources and per node version, and written by the first node process which finds it missing or outdated.
+   * <code>null</code> disables the cache.
+   */
+  public void setCodeCache(File codeCache) {
+    this.codeCache = codeCache == null ? null : new File(codeCache, resourceDigest);
+  }
+
+  /**
+   * Sets the number of milliseconds after which the node process of a compilation is killed, 0 for no limit.
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
   }
 
   public void close() {
+    synchronized (this) {
+      if (watchdog != null) {
+        watchdog.cancel();
+        watchdog = null;
+      }
+    }
     for (String resource : resources) {
       File tempFile = new File(tempDir, resource);
       if (!tempFile.delete()) {
@@ -133,45 +189,188 @@ public class NodeJsLessCompiler {
   public void compile(LessSource input, File output, boolean force)
       throws IOException, LessException, InterruptedException {
     if (force || !output.exists() || output.lastModified() < input.getLastModifiedIncludingImports()) {
-      String data = compile(input.getNormalizedContent());
-      FileUtils.writeStringToFile(output, data, encoding);
+      output.getAbsoluteFile().getParentFile().mkdirs();
+      File tempFile = CssFiles.createTempFile(output.getAbsoluteFile());
+      try {
+        compile(input, Collections.singletonList(compress), Collections.<String>singletonList(null),
+            Collections.singletonList(tempFile));
+        CssFiles.move(tempFile, output);
+      } finally {
+        deleteTempFiles(Collections.singletonList(tempFile));
+      }
     }
   }
 
-  private String compile(String input) throws LessException, IOException, InterruptedException {
+  public String compile(LessSource input) throws IOException, LessException, InterruptedException {
+    return compile(input, Collections.singletonList(compress), Collections.<String>singletonList(null)).get(0);
+  }
+
+  /**
+   * Parses the LESS source once and renders the CSS for each of the given compress flags and LESS variable
+   * overrides.
+   *
+   * @return the CSS stylesheets, in the order of the compress flags.
+   */
+  public List<String> compile(LessSource input, List<Boolean> compress, List<String> variableOverrides)
+      throws IOException, LessException, InterruptedException {
+    List<File> outputFiles = new ArrayList<File>();
+    try {
+      for (int i = 0; i < compress.size(); i++) {
+        outputFiles.add(File.createTempFile("lessc-output-", ".css"));
+      }
+      runNode(input, compress, variableOverrides, outputFiles, null, false);
+      List<String> results = new ArrayList<String>();
+      for (File outputFile : outputFiles) {
+        results.add(FileUtils.readFileToString(outputFile, NODE_ENCODING));
+      }
+      return results;
+    } finally {
+      deleteTempFiles(outputFiles);
+    }
+  }
+
+  /**
+   * Parses the LESS source once and writes the CSS for each of the given compress flags and LESS variable
+   * overrides to the output files, in the configured encoding. The CSS is not read into memory, unless it has to be
+   * re-encoded, which is streamed as well.
+   */
+  public void compile(LessSource input, List<Boolean> compress, List<String> variableOverrides, List<File> outputs)
+      throws IOException, LessException, InterruptedException {
+    compile(input, compress, variableOverrides, outputs, null);
+  }
+
+  /**
+   * Like {@link #compile(LessSource, List, List, List)}, and measures the rules, selectors and gzipped size of the
+   * CSS stylesheets while node holds them in memory, writing the gzipped ones to their gzip files. Stylesheets which
+   * are re-encoded are gzipped while they are re-encoded instead.
+   *
+   * @param stats
+   *          The statistics to measure, in the order of the compress flags, or <code>null</code>.
+   */
+  void compile(LessSource input, List<Boolean> compress, List<String> variableOverrides, List<File> outputs,
+      List<CssStats> stats) throws IOException, LessException, InterruptedException {
+    Charset charset = encoding == null ? Charset.defaultCharset() : Charset.forName(encoding);
+    if (charset.name().equals(NODE_ENCODING)) {
+      runNode(input, compress, variableOverrides, outputs, stats, true);
+      return;
+    }
+    List<File> outputFiles = new ArrayList<File>();
+    try {
+      for (int i = 0; i < compress.size(); i++) {
+        outputFiles.add(File.createTempFile("lessc-output-", ".css"));
+      }
+      runNode(input, compress, variableOverrides, outputFiles, stats, false);
+      for (int i = 0; i < outputs.size(); i++) {
+        if (stats == null) {
+          CssFiles.transcode(outputFiles.get(i), NODE_ENCODING, outputs.get(i), encoding);
+        } else {
+          CssFiles.transcode(outputFiles.get(i), NODE_ENCODING, outputs.get(i), encoding, stats.get(i));
+        }
+      }
+    } finally {
+      deleteTempFiles(outputFiles);
+    }
+  }
+
+  /**
+   * @param gzip
+   *          Whether node gzips the stylesheets for the statistics, as they are written in its encoding.
+   */
+  private void runNode(LessSource input, List<Boolean> compress, List<String> variableOverrides,
+      List<File> outputFiles, List<CssStats> stats, boolean gzip)
+      throws IOException, LessException, InterruptedException {
     long start = System.currentTimeMillis();
 
     File inputFile = File.createTempFile("lessc-input-", ".less");
     FileOutputStream out = new FileOutputStream(inputFile);
-    IOUtils.write(input, out);
+    IOUtils.write(input.getNormalizedContent(), out);
     out.close();
-    File outputFile = File.createTempFile("lessc-output-", ".css");
     File lesscJsFile = new File(tempDir, "lessc.js");
 
+    List<File> statsFiles = new ArrayList<File>();
+    StringBuilder job = new StringBuilder();
+    job.append("{\"input\": ").append(Json.quote(inputFile.getAbsolutePath())).append(", \"outputs\": [");
+    for (int i = 0; i < compress.size(); i++) {
+      job.append(i > 0 ? ", " : "").append("{\"file\": ").append(Json.quote(outputFiles.get(i).getAbsolutePath()))
+          .append(", \"compress\": ").append(compress.get(i))
+          .append(", \"variables\": ").append(Json.quote(variableOverrides.get(i)));
+      if (stats != null) {
+        statsFiles.add(File.createTempFile("lessc-stats-", ".json"));
+        job.append(", \"stats\": ").append(Json.quote(statsFiles.get(i).getAbsolutePath()))
+            .append(", \"gzip\": ").append(gzip && stats.get(i).isGzip());
+        if (gzip && stats.get(i).getGzipFile() != null) {
+          job.append(", \"gzipFile\": ").append(Json.quote(stats.get(i).getGzipFile().getAbsolutePath()));
+        }
+      }
+      job.append("}");
+    }
+    job.append("]");
+    if (codeCache != null) {
+      job.append(", \"codeCache\": ").append(Json.quote(codeCache.getAbsolutePath()));
+    }
+    job.append("}");
+    File jobFile = File.createTempFile("lessc-job-", ".json");
+    FileUtils.writeStringToFile(jobFile, job.toString(), "UTF-8");
+
     ProcessBuilder pb = new ProcessBuilder(nodeExecutablePath, lesscJsFile.getAbsolutePath(),
-        inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), String.valueOf(compress));
+        jobFile.getAbsolutePath());
     pb.redirectErrorStream(true);
-    Process process = pb.start();
-    IOUtils.copy(process.getInputStream(), System.out);
-
-    int exitStatus = process.waitFor();
-
-    FileInputStream in = new FileInputStream(outputFile);
-    String result = IOUtils.toString(in);
-    in.close();
-    if (!inputFile.delete()) {
-      log.warn("Could not delete temp file: " + inputFile.getAbsolutePath());
-    }
-    if (!outputFile.delete()) {
-      log.warn("Could not delete temp file: " + outputFile.getAbsolutePath());
+    final Process process = pb.start();
+    final AtomicBoolean expired = new AtomicBoolean();
+    TimerTask kill = null;
+    if (timeout > 0) {
+      kill = new TimerTask() {
+        @Override
+        public void run() {
+          expired.set(true);
+          process.destroy();
+        }
+      };
+      getWatchdog().schedule(kill, timeout);
     }
-    if (exitStatus != 0) {
-      throw new LessException(result, null);
+    int exitStatus;
+    try {
+      IOUtils.copy(process.getInputStream(), System.out);
+      exitStatus = process.waitFor();
+
+      if (expired.get()) {
+        throw new LessException("Compilation timed out after " + timeout + " ms, the node process was killed", null);
+      }
+      if (exitStatus != 0) {
+        // lessc.js writes the error message to the first output
+        throw new LessException(FileUtils.readFileToString(outputFiles.get(0), NODE_ENCODING), null);
+      }
+      for (int i = 0; i < statsFiles.size(); i++) {
+        try {
+          stats.get(i).read(Json.parseObject(FileUtils.readFileToString(statsFiles.get(i), NODE_ENCODING)));
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Invalid CSS statistics written by lessc.js: " + e.getMessage());
+        }
+      }
+    } finally {
+      if (kill != null) {
+        kill.cancel();
+      }
+      deleteTempFiles(Arrays.asList(inputFile, jobFile));
+      deleteTempFiles(statsFiles);
     }
 
     log.debug("Finished compilation of LESS source in " + (System.currentTimeMillis() - start) + " ms.");
+  }
 
-    return result;
+  private synchronized Timer getWatchdog() {
+    if (watchdog == null) {
+      watchdog = new Timer("lessc-watchdog", true);
+    }
+    return watchdog;
+  }
+
+  private void deleteTempFiles(List<File> tempFiles) {
+    for (File tempFile : tempFiles) {
+      if (tempFile.exists() && !tempFile.delete()) {
+        log.warn("Could not delete temp file: " + tempFile.getAbsolutePath());
+      }
+    }
   }
 
   // copied from guava's Files.createTempDir, with added prefix
@@ -0,0 +1,110 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.util.regex.Matcher;
+
+/**
+ * An additional CSS stylesheet generated from the same LESS source, e.g. a compressed <code>.min.css</code> next to the
+ * plain one.
+ */
+public class OutputVariant {
+
+	static final String FILE_NAME_FORMAT_PARAMETER_REGEX = "\\{fileName\\}";
+
+	static final String HASH_FORMAT_PARAMETER = "{hash}";
+
+	private static final String HASH_FORMAT_PARAMETER_REGEX = "\\{hash\\}";
+
+	private static final String HASH_FORMAT_PARAMETER_WITH_SEPARATOR_REGEX = "[.\\-_]?\\{hash\\}";
+
+	/**
+	 * When <code>true</code> the LESS compiler will compress the CSS stylesheet of this variant.
+	 */
+	private boolean compress;
+
+	/**
+	 * The format of the output file names of this variant. Supports the same tokens as the
+	 * <code>outputFileFormat</code> of the compile goal.
+	 */
+	private String outputFileFormat;
+
+	public OutputVariant() {
+	}
+
+	public OutputVariant(boolean compress, String outputFileFormat) {
+		this.compress = compress;
+		this.outputFileFormat = outputFileFormat;
+	}
+
+	public boolean isCompress() {
+		return compress;
+	}
+
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	public String getOutputFileFormat() {
+		return outputFileFormat;
+	}
+
+	public void setOutputFileFormat(String outputFileFormat) {
+		this.outputFileFormat = outputFileFormat;
+	}
+
+	/**
+	 * Returns the LESS variable declarations to append to the source, or <code>null</code> to compile it as is.
+	 */
+	String getVariableOverrides() {
+		return null;
+	}
+
+	/**
+	 * Returns <code>true</code> when the output file names contain a hash of the compiled CSS.
+	 */
+	boolean isHashed() {
+		return getOutputFileFormat() != null && getOutputFileFormat().contains(HASH_FORMAT_PARAMETER);
+	}
+
+	/**
+	 * Returns the logical output file name of the LESS source, relative to the output directory. For hashed output
+	 * file names this is the name without the hash, e.g. <code>main.css</code> for <code>{fileName}.{hash}.css</code>.
+	 */
+	String formatOutputFile(String file) {
+		return formatOutputFile(file, null);
+	}
+
+	/**
+	 * Returns the output file name of the LESS source, relative to the output directory.
+	 */
+	String formatOutputFile(String file, String hash) {
+		String name = formatFileName(file);
+		if (hash == null) {
+			name = name.replaceAll(HASH_FORMAT_PARAMETER_WITH_SEPARATOR_REGEX, "");
+		} else {
+			name = name.replaceAll(HASH_FORMAT_PARAMETER_REGEX, hash);
+		}
+		return name.replace(".less", ".css");
+	}
+
+	String formatFileName(String file) {
+		if (outputFileFormat == null) {
+			return file;
+		}
+		return outputFileFormat.replaceAll(FILE_NAME_FORMAT_PARAMETER_REGEX,
+				Matcher.quoteReplacement(file.replace(".less", "")));
+	}
+}
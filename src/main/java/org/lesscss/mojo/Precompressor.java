@@ -0,0 +1,62 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The precompressed siblings, e.g. <code>main.css.gz</code>, to write next to the compiled CSS stylesheets. Each
+ * stylesheet is gzipped while the compiler writes it, from the CSS it holds in memory (see {@link CssStats}), so the
+ * stylesheets are not read back and a gzipped size budget does not compress them again.
+ */
+class Precompressor {
+
+	static final String GZIP = "gzip";
+
+	static final String BROTLI = "br";
+
+	private final boolean gzip;
+
+	Precompressor(String[] formats, Log log) throws MojoExecutionException {
+		boolean gzip = false;
+		if (formats != null) {
+			for (String format : formats) {
+				if (GZIP.equalsIgnoreCase(format.trim())) {
+					gzip = true;
+				} else if (BROTLI.equalsIgnoreCase(format.trim())) {
+					// Brotli encoders need native libraries, which cannot be assumed on the build machine
+					log.warn("Brotli precompression is not supported, no pure Java Brotli encoder is available");
+				} else {
+					throw new MojoExecutionException("Unknown precompress format: " + format);
+				}
+			}
+		}
+		this.gzip = gzip;
+	}
+
+	boolean isEnabled() {
+		return gzip;
+	}
+
+	/**
+	 * Returns the gzipped sibling of the CSS stylesheet.
+	 */
+	static File getGzipFile(File output) {
+		return new File(output.getPath() + ".gz");
+	}
+}
@@ -0,0 +1,237 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+
+/**
+ * Goal which compiles the LESS sources without writing them and reports the most expensive LESS sources and imports.
+ * <p>
+ * Each LESS source is compiled once by a new LESS compiler (cold) and then <code>iterations</code> times by the same
+ * compiler (warm, the median is reported). The compile time of the imports is not measured but estimated: the warm
+ * compile time of a LESS source is split among the files it is made of in proportion to their size, so an import
+ * shared by many LESS sources accumulates their estimated cost. A large import of plain variables ranks high although
+ * it is cheap to evaluate.
+ *
+ * @goal profile
+ */
+public class ProfileMojo extends AbstractLessCompilerMojo {
+
+	/**
+	 * The number of warm compilations of each LESS source.
+	 *
+	 * @parameter expression="${lesscss.profile.iterations}" default-value="3"
+	 */
+	private int iterations = 3;
+
+	/**
+	 * The number of LESS sources and imports to report.
+	 *
+	 * @parameter expression="${lesscss.profile.top}" default-value="10"
+	 */
+	private int top = 10;
+
+	/**
+	 * The JSON file to write the complete report to.
+	 *
+	 * @parameter expression="${lesscss.profile.reportFile}" default-value="${project.build.directory}/lesscss-profile.json"
+	 */
+	private File reportFile;
+
+	/**
+	 * Execute the MOJO.
+	 *
+	 * @throws MojoExecutionException
+	 *             if something unexpected occurs.
+	 */
+	public void execute() throws MojoExecutionException {
+		if (getLog().isDebugEnabled()) {
+			getLog().debug("sourceDirectory = " + sourceDirectory);
+			getLog().debug("includes = " + Arrays.toString(includes));
+			getLog().debug("excludes = " + Arrays.toString(excludes));
+			getLog().debug("iterations = " + iterations);
+		}
+
+		if (skip) {
+			getLog().info("Skipping plugin execution per configuration");
+			return;
+		}
+
+		String[] files = getIncludedFiles();
+
+		if (files == null || files.length < 1) {
+			getLog().info("Nothing to profile - no LESS sources found");
+			return;
+		}
+
+		ImportGraph graph = new ImportGraph();
+		List<Measurement> roots = new ArrayList<Measurement>();
+		try {
+			for (String file : files) {
+				roots.add(profile(file, graph));
+			}
+		} finally {
+			closeDependencyArchives();
+		}
+
+		Map<String, Measurement> partials = new LinkedHashMap<String, Measurement>();
+		for (Measurement root : roots) {
+			Set<String> paths = graph.getTransitiveImports(root.path);
+			for (String path : paths) {
+				Measurement partial = partials.get(path);
+				if (partial == null) {
+					partial = new Measurement(path);
+					partial.bytes = new File(sourceDirectory, path).length();
+					partials.put(path, partial);
+				}
+				partial.fanIn++;
+				if (root.bytes > 0) {
+					// an estimate by size, the imports are not compiled on their own
+					partial.time += root.time * partial.bytes / root.bytes;
+				}
+			}
+		}
+
+		Comparator<Measurement> byTime = new Comparator<Measurement>() {
+			public int compare(Measurement m1, Measurement m2) {
+				return m1.time < m2.time ? 1 : (m1.time > m2.time ? -1 : m1.path.compareTo(m2.path));
+			}
+		};
+		Collections.sort(roots, byTime);
+		List<Measurement> hotPartials = new ArrayList<Measurement>(partials.values());
+		Collections.sort(hotPartials, byTime);
+
+		getLog().info("Hot LESS sources (warm, cold, files, bytes):");
+		for (int i = 0; i < Math.min(top, roots.size()); i++) {
+			Measurement root = roots.get(i);
+			getLog().info(String.format("%3d. %s  %d ms, cold %d ms, %d files, %d bytes", Integer.valueOf(i + 1),
+					root.path, Long.valueOf(millis(root.time)), Long.valueOf(millis(root.coldTime)),
+					Integer.valueOf(root.files), Long.valueOf(root.bytes)));
+		}
+		getLog().info("Hot imports (estimated by size, fan-in, bytes):");
+		for (int i = 0; i < Math.min(top, hotPartials.size()); i++) {
+			Measurement partial = hotPartials.get(i);
+			getLog().info(String.format("%3d. %s  ~%d ms, fan-in %d, %d bytes", Integer.valueOf(i + 1), partial.path,
+					Long.valueOf(millis(partial.time)), Integer.valueOf(partial.fanIn), Long.valueOf(partial.bytes)));
+		}
+
+		writeReport(roots, hotPartials);
+	}
+
+	private Measurement profile(String file, ImportGraph graph) throws MojoExecutionException {
+		File input = new File(sourceDirectory, file);
+		Measurement root = new Measurement(ImportGraph.toPath(file));
+		Object lessCompiler = initLessCompiler(compress);
+		try {
+			LessSource lessSource = newLessSource(input);
+			graph.add(lessSource, root.path);
+			Set<String> paths = new HashSet<String>(graph.getTransitiveImports(root.path));
+			paths.add(root.path);
+			root.files = paths.size();
+			for (String path : paths) {
+				root.bytes += new File(sourceDirectory, path).length();
+			}
+
+			long started = System.nanoTime();
+			compile(lessCompiler, lessSource);
+			root.coldTime = System.nanoTime() - started;
+
+			long[] times = new long[Math.max(1, iterations)];
+			for (int i = 0; i < times.length; i++) {
+				started = System.nanoTime();
+				compile(lessCompiler, lessSource);
+				times[i] = System.nanoTime() - started;
+			}
+			Arrays.sort(times);
+			root.time = times[times.length / 2];
+			getLog().debug("Profiled LESS source: " + file);
+			return root;
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error while compiling LESS source: " + file, e);
+		} catch (LessException e) {
+			throw new MojoExecutionException("Error while compiling LESS source: " + file, e);
+		} catch (InterruptedException e) {
+			throw new MojoExecutionException("Error while compiling LESS source: " + file, e);
+		} finally {
+			close(lessCompiler);
+		}
+	}
+
+	private void writeReport(List<Measurement> roots, List<Measurement> partials) throws MojoExecutionException {
+		StringBuilder json = new StringBuilder("{\n  \"roots\": [");
+		for (int i = 0; i < roots.size(); i++) {
+			Measurement root = roots.get(i);
+			json.append(i > 0 ? "," : "").append("\n    {\"path\": ").append(Json.quote(root.path))
+					.append(", \"warmMillis\": ").append(millis(root.time))
+					.append(", \"coldMillis\": ").append(millis(root.coldTime))
+					.append(", \"files\": ").append(root.files)
+					.append(", \"bytes\": ").append(root.bytes).append("}");
+		}
+		json.append("\n  ],\n  \"imports\": [");
+		for (int i = 0; i < partials.size(); i++) {
+			Measurement partial = partials.get(i);
+			json.append(i > 0 ? "," : "").append("\n    {\"path\": ").append(Json.quote(partial.path))
+					.append(", \"estimatedMillis\": ").append(millis(partial.time))
+					.append(", \"fanIn\": ").append(partial.fanIn)
+					.append(", \"bytes\": ").append(partial.bytes).append("}");
+		}
+		json.append("\n  ]\n}\n");
+		try {
+			FileUtils.writeStringToFile(reportFile, json.toString(), "UTF-8");
+		} catch (IOException e) {
+			throw new MojoExecutionException("Error while writing " + reportFile.getAbsolutePath(), e);
+		}
+		getLog().info("Profile report written to " + reportFile.getAbsolutePath());
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000L;
+	}
+
+	private static class Measurement {
+
+		private final String path;
+
+		/** The warm compile time of a LESS source or the estimated compile time of an import, in nanoseconds. */
+		private long time;
+
+		private long coldTime;
+
+		private int files;
+
+		private long bytes;
+
+		private int fanIn;
+
+		Measurement(String path) {
+			this.path = path;
+		}
+	}
+}
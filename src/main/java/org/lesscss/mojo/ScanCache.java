@@ -0,0 +1,129 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * The LESS sources found by the last scan of the source directory, with the last modification times of the scanned
+ * directories. Adding, removing or renaming a file changes the modification time of its directory, so while no
+ * scanned directory has changed the scan can be skipped.
+ */
+class ScanCache {
+
+	/** The coarsest modification time resolution of common file systems. */
+	private static final long MTIME_RESOLUTION = 2000;
+
+	private static final String KEY = "key";
+
+	private static final String FILES = "files";
+
+	private static final String DIRECTORY = "dir.";
+
+	private final CacheProperties properties;
+
+	private String key;
+
+	private String[] files;
+
+	private Map<String, Long> directories = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Creates the cache, loading it from the file if it exists.
+	 *
+	 * @param file
+	 *            The file to persist the cache to, or <code>null</code> to keep it in memory only.
+	 */
+	ScanCache(File file) throws IOException {
+		properties = new CacheProperties(file,
+				"LESS sources by the last modification times of the scanned directories");
+		key = properties.get(KEY);
+		String paths = properties.get(FILES);
+		files = paths == null ? null : StringUtils.split(paths, "\n");
+		for (String name : properties.getAll().keySet()) {
+			if (name.startsWith(DIRECTORY)) {
+				Long lastModified = properties.getLong(name);
+				if (lastModified == null) {
+					files = null;
+				} else {
+					directories.put(name.substring(DIRECTORY.length()), lastModified);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the LESS sources found by the last scan, if it used the same key and none of the scanned directories has
+	 * changed since.
+	 *
+	 * @param key
+	 *            Identifies the source directory, includes and excludes of the scan.
+	 * @return The LESS sources, or <code>null</code> if the source directory has to be scanned.
+	 */
+	synchronized String[] get(File basedir, String key) {
+		if (files == null || !key.equals(this.key)) {
+			return null;
+		}
+		for (Map.Entry<String, Long> entry : directories.entrySet()) {
+			if (new File(basedir, entry.getKey()).lastModified() != entry.getValue().longValue()) {
+				return null;
+			}
+		}
+		return files.clone();
+	}
+
+	/**
+	 * Records the result of a scan.
+	 *
+	 * @param scanned
+	 *            When the scan started.
+	 * @param directories
+	 *            The last modification times of the scanned directories, by path relative to the source directory.
+	 */
+	synchronized void put(String key, long scanned, Map<String, Long> directories, String[] files) {
+		for (Long lastModified : directories.values()) {
+			if (lastModified.longValue() > scanned - MTIME_RESOLUTION) {
+				// a later change within the resolution would not change the modification time
+				this.files = null;
+				properties.replaceAll(Collections.<String, String> emptyMap());
+				return;
+			}
+		}
+		this.key = key;
+		this.directories = new LinkedHashMap<String, Long>(directories);
+		this.files = files.clone();
+		Map<String, String> scan = new HashMap<String, String>();
+		scan.put(KEY, key);
+		scan.put(FILES, StringUtils.join(files, "\n"));
+		for (Map.Entry<String, Long> entry : directories.entrySet()) {
+			scan.put(DIRECTORY + entry.getKey(), entry.getValue().toString());
+		}
+		properties.replaceAll(scan);
+	}
+
+	/**
+	 * Writes the cache to its file if it has been modified, or deletes it if the last scan could not be cached.
+	 */
+	void save() throws IOException {
+		properties.save();
+	}
+}
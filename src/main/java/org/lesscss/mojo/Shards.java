@@ -0,0 +1,111 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Partitions the LESS sources across build agents. Each agent computes the same partition from the same checkout, so
+ * the shards are disjoint and together cover all LESS sources.
+ */
+final class Shards {
+
+	/** Assigns LESS sources by a stable hash of their path. */
+	static final String HASH = "hash";
+
+	/** Balances the LESS sources by their shared compile durations, or their size when unknown. */
+	static final String COST = "cost";
+
+	private Shards() {
+	}
+
+	/**
+	 * Returns the LESS sources of the shard assigned by the hash of their path relative to the source directory.
+	 */
+	static String[] byHash(String[] files, int shardIndex, int shardCount) {
+		List<String> shard = new ArrayList<String>();
+		for (String file : files) {
+			if (isInShard(file, shardIndex, shardCount)) {
+				shard.add(file);
+			}
+		}
+		return shard.toArray(new String[shard.size()]);
+	}
+
+	/**
+	 * Whether the hash of the path of the LESS source assigns it to the shard.
+	 */
+	static boolean isInShard(String file, int shardIndex, int shardCount) {
+		// String.hashCode is specified, so every JVM assigns the same shard
+		return (ImportGraph.toPath(file).hashCode() & Integer.MAX_VALUE) % shardCount == shardIndex;
+	}
+
+	/**
+	 * Returns the LESS sources of the shard when the most expensive LESS sources are assigned first, each to the shard
+	 * with the least cost so far.
+	 *
+	 * @param durations
+	 *            The compile durations shared by all agents, or <code>null</code> to balance the LESS sources by their
+	 *            size, which is the same on every agent.
+	 */
+	static String[] byCost(String[] files, int shardIndex, int shardCount, File sourceDirectory,
+			CompileHistory durations) {
+		final long[] costs = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			Long duration = durations == null ? null : durations.getDuration(ImportGraph.toPath(files[i]));
+			// without history, 1 ms per KB keeps durations and sizes comparable
+			costs[i] = duration != null ? duration.longValue() : new File(sourceDirectory, files[i]).length() / 1024;
+			order[i] = Integer.valueOf(i);
+		}
+		final String[] paths = new String[files.length];
+		for (int i = 0; i < files.length; i++) {
+			paths[i] = ImportGraph.toPath(files[i]);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				long c1 = costs[i1.intValue()];
+				long c2 = costs[i2.intValue()];
+				return c1 < c2 ? 1 : (c1 > c2 ? -1 : paths[i1.intValue()].compareTo(paths[i2.intValue()]));
+			}
+		});
+
+		long[] loads = new long[shardCount];
+		boolean[] selected = new boolean[files.length];
+		for (Integer i : order) {
+			int lightest = 0;
+			for (int shard = 1; shard < shardCount; shard++) {
+				if (loads[shard] < loads[lightest]) {
+					lightest = shard;
+				}
+			}
+			// count every LESS source, so LESS sources without cost are spread as well
+			loads[lightest] += costs[i.intValue()] + 1;
+			selected[i.intValue()] = lightest == shardIndex;
+		}
+
+		List<String> shard = new ArrayList<String>();
+		for (int i = 0; i < files.length; i++) {
+			if (selected[i]) {
+				shard.add(files[i]);
+			}
+		}
+		return shard.toArray(new String[shard.size()]);
+	}
+}
@@ -0,0 +1,84 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+
+/**
+ * A source directory of LESS sources and the output directory of their CSS stylesheets, for executions compiling
+ * several source directories.
+ */
+public class SourceMapping {
+
+	/**
+	 * The source directory containing the LESS sources.
+	 */
+	private File sourceDirectory;
+
+	/**
+	 * The directory for the generated CSS stylesheets, by default the outputDirectory of the execution.
+	 */
+	private File outputDirectory;
+
+	/**
+	 * The files to include, by default the includes of the execution.
+	 */
+	private String[] includes;
+
+	/**
+	 * The files to exclude, by default the excludes of the execution.
+	 */
+	private String[] excludes;
+
+	public SourceMapping() {
+	}
+
+	public SourceMapping(File sourceDirectory, File outputDirectory) {
+		this.sourceDirectory = sourceDirectory;
+		this.outputDirectory = outputDirectory;
+	}
+
+	public File getSourceDirectory() {
+		return sourceDirectory;
+	}
+
+	public void setSourceDirectory(File sourceDirectory) {
+		this.sourceDirectory = sourceDirectory;
+	}
+
+	public File getOutputDirectory() {
+		return outputDirectory;
+	}
+
+	public void setOutputDirectory(File outputDirectory) {
+		this.outputDirectory = outputDirectory;
+	}
+
+	public String[] getIncludes() {
+		return includes;
+	}
+
+	public void setIncludes(String[] includes) {
+		this.includes = includes;
+	}
+
+	public String[] getExcludes() {
+		return excludes;
+	}
+
+	public void setExcludes(String[] excludes) {
+		this.excludes = excludes;
+	}
+}
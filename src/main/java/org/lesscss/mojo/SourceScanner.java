@@ -0,0 +1,177 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Scans the source directory for the LESS sources matching the includes and excludes, like the scanner of the
+ * {@link org.sonatype.plexus.build.incremental.BuildContext}, but reports each LESS source as soon as it is found.
+ * <p>
+ * Directories which cannot hold included files, or whose whole subtree is excluded (e.g. <code>node_modules/</code>
+ * or <code>**&#47;bower_components/**</code>), are not descended into.
+ */
+class SourceScanner {
+
+	/**
+	 * Receives the LESS sources found by the scanner.
+	 */
+	interface Listener {
+
+		/**
+		 * @param file
+		 *            The path of the LESS source relative to the source directory.
+		 */
+		void found(String file) throws InterruptedException;
+	}
+
+	private final File basedir;
+
+	private final String[] includes;
+
+	private final String[] excludes;
+
+	private final Map<String, Long> directories = new LinkedHashMap<String, Long>();
+
+	SourceScanner(File basedir, String[] includes, String[] excludes) {
+		this.basedir = basedir;
+		this.includes = normalizePatterns(includes == null || includes.length == 0 ? new String[] { "**" } : includes);
+		this.excludes = normalizePatterns(excludes == null ? new String[0] : excludes);
+	}
+
+	/**
+	 * Scans the source directory, reporting the LESS sources to the listener while scanning.
+	 */
+	void scan(Listener listener) throws InterruptedException {
+		scan(basedir, "", listener);
+	}
+
+	/**
+	 * Scans the source directory.
+	 *
+	 * @return The paths of the LESS sources relative to the source directory.
+	 */
+	String[] scan() {
+		final List<String> files = new ArrayList<String>();
+		try {
+			scan(new Listener() {
+				public void found(String file) {
+					files.add(file);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return files.toArray(new String[files.size()]);
+	}
+
+	/**
+	 * Returns the last modification times of the directories listed by the last scan, by path relative to the source
+	 * directory. Files are only added to or removed from the scan result when one of them changes.
+	 */
+	Map<String, Long> getDirectories() {
+		return Collections.unmodifiableMap(directories);
+	}
+
+	private void scan(File directory, String prefix, Listener listener) throws InterruptedException {
+		if (prefix.length() == 0) {
+			directories.clear();
+		}
+		// before listing, so a change while listing is noticed by the next scan
+		directories.put(prefix, Long.valueOf(directory.lastModified()));
+		String[] names = directory.list();
+		if (names == null) {
+			return;
+		}
+		Arrays.sort(names);
+		for (String name : names) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			String path = prefix + name;
+			File file = new File(directory, name);
+			if (file.isDirectory()) {
+				if (couldHoldIncluded(path) && !isExcludedTree(path)) {
+					scan(file, path + File.separator, listener);
+				}
+			} else if (isIncluded(path)) {
+				listener.found(path);
+			}
+		}
+	}
+
+	private boolean isIncluded(String path) {
+		return matches(includes, path) && !matches(excludes, path);
+	}
+
+	private boolean couldHoldIncluded(String directory) {
+		for (String pattern : includes) {
+			if (SelectorUtils.matchPatternStart(pattern, directory)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether an exclude matches everything below the directory, like <code>**&#47;node_modules/**</code>.
+	 */
+	private boolean isExcludedTree(String directory) {
+		for (String pattern : excludes) {
+			if (pattern.equals("**")) {
+				return true;
+			}
+			String everything = File.separator + "**";
+			if (pattern.endsWith(everything)
+					&& SelectorUtils.matchPath(pattern.substring(0, pattern.length() - everything.length()), directory)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matches(String[] patterns, String path) {
+		for (String pattern : patterns) {
+			if (SelectorUtils.matchPath(pattern, path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Normalizes the patterns like the directory scanner of plexus-utils: file separators are made platform specific
+	 * and a trailing separator matches everything below the directory.
+	 */
+	private static String[] normalizePatterns(String[] patterns) {
+		String[] normalized = new String[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			String pattern = patterns[i].trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+			if (pattern.endsWith(File.separator)) {
+				pattern += "**";
+			}
+			normalized[i] = pattern;
+		}
+		return normalized;
+	}
+}
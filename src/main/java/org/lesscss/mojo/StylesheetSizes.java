@@ -0,0 +1,56 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The sizes of the CSS stylesheets in the previous builds, by path relative to the output directory. They are used
+ * to report and limit the growth of the stylesheets, see {@link CssBudget}.
+ */
+class StylesheetSizes {
+
+	private final CacheProperties sizes;
+
+	/**
+	 * Creates the sizes, loading them from the file if it exists.
+	 *
+	 * @param file
+	 *            The file to persist the sizes to, or <code>null</code> to keep them in memory only.
+	 */
+	StylesheetSizes(File file) throws IOException {
+		sizes = new CacheProperties(file, "CSS stylesheet sizes in bytes by output");
+	}
+
+	/**
+	 * Returns the recorded size of the stylesheet in bytes, or -1 if unknown.
+	 */
+	long get(String name) {
+		Long bytes = sizes.getLong(name);
+		return bytes == null ? -1 : bytes.longValue();
+	}
+
+	void put(String name, long bytes) {
+		sizes.putLong(name, bytes);
+	}
+
+	/**
+	 * Writes the sizes to their file if they have been modified.
+	 */
+	void save() throws IOException {
+		sizes.save();
+	}
+}
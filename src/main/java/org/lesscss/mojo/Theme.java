@@ -0,0 +1,85 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * A CSS stylesheet generated from the LESS source with a set of variables overridden, e.g. the colors of a brand.
+ */
+public class Theme extends OutputVariant {
+
+	static final String THEME_FORMAT_PARAMETER_REGEX = "\\{theme\\}";
+
+	private static final String DEFAULT_OUTPUT_FILE_FORMAT = "{fileName}-{theme}.css";
+
+	/**
+	 * The name of the theme, available as the <code>{theme}</code> token of the output file format.
+	 */
+	private String name;
+
+	/**
+	 * The LESS variables to override, by name with or without the leading <code>@</code>.
+	 */
+	private Map<String, String> variables = new LinkedHashMap<String, String>();
+
+	public Theme() {
+		setOutputFileFormat(DEFAULT_OUTPUT_FILE_FORMAT);
+	}
+
+	public Theme(String name, boolean compress, Map<String, String> variables) {
+		super(compress, DEFAULT_OUTPUT_FILE_FORMAT);
+		this.name = name;
+		this.variables = variables;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Map<String, String> getVariables() {
+		return variables;
+	}
+
+	public void setVariables(Map<String, String> variables) {
+		this.variables = variables;
+	}
+
+	@Override
+	String getVariableOverrides() {
+		if (variables == null || variables.isEmpty()) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> variable : variables.entrySet()) {
+			String variableName = variable.getKey().startsWith("@") ? variable.getKey() : "@" + variable.getKey();
+			sb.append(variableName).append(": ").append(variable.getValue()).append(";\n");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	String formatFileName(String file) {
+		String format = getOutputFileFormat() == null ? DEFAULT_OUTPUT_FILE_FORMAT : getOutputFileFormat();
+		format = format.replaceAll(THEME_FORMAT_PARAMETER_REGEX, Matcher.quoteReplacement(name));
+		return format.replaceAll(FILE_NAME_FORMAT_PARAMETER_REGEX, Matcher.quoteReplacement(file.replace(".less", "")));
+	}
+}
@@ -0,0 +1,187 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.StringUtils;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+/**
+ * Goal which checks that the LESS sources parse and evaluate, without writing CSS stylesheets.
+ * <p>
+ * All LESS sources are checked, in parallel on <code>threads</code> threads, and all errors are reported with their
+ * file and line before the build fails.
+ *
+ * @goal validate
+ * @phase validate
+ */
+public class ValidateMojo extends AbstractLessCompilerMojo {
+
+	/** The position in the messages of the Rhino and NodeJS LESS compilers, e.g. "on line 3, column 10". */
+	private static final Pattern POSITION = Pattern.compile("line (\\d+)(?:, column (\\d+))?");
+
+	private LessCompilerPool lessCompilers;
+
+	/**
+	 * Execute the MOJO.
+	 *
+	 * @throws MojoExecutionException
+	 *             if something unexpected occurs, or a LESS source is invalid.
+	 */
+	public void execute() throws MojoExecutionException {
+		if (getLog().isDebugEnabled()) {
+			getLog().debug("sourceDirectory = " + sourceDirectory);
+			getLog().debug("includes = " + Arrays.toString(includes));
+			getLog().debug("excludes = " + Arrays.toString(excludes));
+		}
+
+		if (skip) {
+			getLog().info("Skipping plugin execution per configuration");
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		String[] files = getIncludedFiles();
+
+		if (files == null || files.length < 1) {
+			getLog().info("Nothing to validate - no LESS sources found");
+			return;
+		}
+
+		// initialized up front, as the workers record the imports concurrently
+		getImportIndex();
+		lessCompilers = createLessCompilerPool();
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		List<Problem> problems = new ArrayList<Problem>();
+		try {
+			List<Future<Problem>> validations = new ArrayList<Future<Problem>>();
+			for (final String file : files) {
+				final File input = new File(sourceDirectory, file);
+				buildContext.removeMessages(input);
+				if (executor == null) {
+					addProblem(problems, validate(file, input));
+				} else {
+					validations.add(executor.submit(new Callable<Problem>() {
+						public Problem call() throws Exception {
+							return validate(file, input);
+						}
+					}));
+				}
+			}
+			for (Future<Problem> validation : validations) {
+				addProblem(problems, validation.get());
+			}
+		} catch (ExecutionException e) {
+			throw new MojoExecutionException("Error while validating LESS sources", e.getCause());
+		} catch (InterruptedException e) {
+			throw new MojoExecutionException("Interrupted while validating LESS sources", e);
+		} finally {
+			lessCompilers.close();
+			closeDependencyArchives();
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		saveImportIndex();
+
+		if (!problems.isEmpty()) {
+			for (Problem problem : problems) {
+				buildContext.addMessage(problem.input, problem.line, problem.column, problem.message,
+						BuildContext.SEVERITY_ERROR, problem.cause);
+				getLog().error(problem.file + (problem.line > 0 ? ":" + problem.line : "")
+						+ (problem.column > 0 ? ":" + problem.column : "") + " " + problem.message);
+			}
+			throw new MojoExecutionException(problems.size() + " of " + files.length
+					+ " LESS sources are invalid");
+		}
+		getLog().info("Validated " + files.length + " LESS sources in " + (System.currentTimeMillis() - start)
+				+ " ms");
+	}
+
+	/**
+	 * Parses and evaluates the LESS source.
+	 *
+	 * @return The problem of the LESS source, or <code>null</code> if it is valid.
+	 */
+	private Problem validate(String file, File input) throws MojoExecutionException {
+		try {
+			LessSource lessSource = newLessSource(input);
+			indexImports(file, lessSource);
+			lessCompilers.evaluate(lessSource, compress);
+			getLog().debug("Validated LESS source: " + file);
+			return null;
+		} catch (IOException e) {
+			return new Problem(file, input, e);
+		} catch (LessException e) {
+			return new Problem(file, input, e);
+		} catch (InterruptedException e) {
+			throw new MojoExecutionException("Interrupted while validating LESS source: " + file, e);
+		}
+	}
+
+	private static void addProblem(List<Problem> problems, Problem problem) {
+		if (problem != null) {
+			problems.add(problem);
+		}
+	}
+
+	private static class Problem {
+
+		private final String file;
+
+		private final File input;
+
+		private final Exception cause;
+
+		private final String message;
+
+		private int line;
+
+		private int column;
+
+		Problem(String file, File input, Exception cause) {
+			this.file = file;
+			this.input = input;
+			this.cause = cause;
+			String message = cause.getMessage();
+			if (StringUtils.isEmpty(message)) {
+				message = cause instanceof IOException ? "Error reading LESS source" : "Error compiling LESS source";
+			}
+			this.message = message.trim();
+			Matcher matcher = POSITION.matcher(message);
+			if (matcher.find()) {
+				line = Integer.parseInt(matcher.group(1));
+				if (matcher.group(2) != null) {
+					column = Integer.parseInt(matcher.group(2));
+				}
+			}
+		}
+	}
+}
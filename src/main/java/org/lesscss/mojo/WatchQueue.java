@@ -0,0 +1,114 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queue of the LESS sources to recompile in watch mode, by path relative to the source directory.
+ * <p>
+ * The LESS sources which are, or directly import, the most recently edited file come first, so the page the developer
+ * is looking at is refreshed first. The others follow by how recently they changed. Offering a LESS source which is
+ * already queued replaces the queued entry.
+ *
+ * @param <T>
+ *            The type of the queued LESS sources.
+ */
+class WatchQueue<T> {
+
+	private final Map<String, Entry<T>> entries = new LinkedHashMap<String, Entry<T>>();
+
+	/**
+	 * Queues the LESS source, replacing an entry for an older change.
+	 *
+	 * @param root
+	 *            The path of the LESS source.
+	 * @param lastChange
+	 *            The last modification time of the LESS source and its imports.
+	 * @param changedPath
+	 *            The path of the file modified at <code>lastChange</code>.
+	 * @param directImports
+	 *            The paths of the files imported by the LESS source itself.
+	 */
+	void offer(String root, T item, long lastChange, String changedPath, Collection<String> directImports) {
+		Entry<T> queued = entries.get(root);
+		if (queued == null || queued.lastChange <= lastChange) {
+			entries.put(root, new Entry<T>(item, lastChange, changedPath, directImports));
+		}
+	}
+
+	/**
+	 * Whether the LESS source is queued for a change at least as recent as the given one.
+	 */
+	boolean isQueued(String root, long lastChange) {
+		Entry<T> queued = entries.get(root);
+		return queued != null && queued.lastChange >= lastChange;
+	}
+
+	boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Removes and returns the LESS source to compile next.
+	 *
+	 * @return The LESS source, or <code>null</code> if the queue is empty.
+	 */
+	T poll() {
+		String lastEdited = null;
+		long lastEdit = Long.MIN_VALUE;
+		for (Entry<T> entry : entries.values()) {
+			if (entry.lastChange > lastEdit) {
+				lastEdit = entry.lastChange;
+				lastEdited = entry.changedPath;
+			}
+		}
+
+		String next = null;
+		boolean nextDirect = false;
+		for (Map.Entry<String, Entry<T>> entry : entries.entrySet()) {
+			String root = entry.getKey();
+			boolean direct = root.equals(lastEdited) || entry.getValue().directImports.contains(lastEdited);
+			if (next == null || (direct && !nextDirect)
+					|| (direct == nextDirect && entry.getValue().lastChange > entries.get(next).lastChange)) {
+				next = root;
+				nextDirect = direct;
+			}
+		}
+		return next == null ? null : entries.remove(next).item;
+	}
+
+	private static class Entry<T> {
+
+		private final T item;
+
+		private final long lastChange;
+
+		private final String changedPath;
+
+		private final Set<String> directImports;
+
+		Entry(T item, long lastChange, String changedPath, Collection<String> directImports) {
+			this.item = item;
+			this.lastChange = lastChange;
+			this.changedPath = changedPath;
+			this.directImports = new HashSet<String>(directImports);
+		}
+	}
+}
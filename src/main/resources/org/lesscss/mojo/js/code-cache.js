@@ -0,0 +1,109 @@
+// Loads the less.js modules from a single bundle compiled with a V8 code cache, so a node process neither resolves
+// and reads every module nor parses and compiles them again. The bundle and its code cache are kept in a directory
+// per node version; the code cache is written at exit when it was missing or rejected by V8, so it also holds the
+// functions which were compiled lazily during the job.
+var fs = require('fs');
+var path = require('path');
+var vm = require('vm');
+var Module = require('module');
+
+exports.load = function(root, main, directory) {
+  if (typeof vm.Script.prototype.createCachedData !== 'function') {
+	  // node before 10.6
+	  return require(path.join(root, main));
+  }
+  directory = path.join(directory, process.version + '-' + process.arch);
+  var bundleFile = path.join(directory, 'less-bundle.js');
+  var cacheFile = path.join(directory, 'less-bundle.bin');
+
+  var source = read(bundleFile, 'utf8');
+  if (source === undefined) {
+	  source = bundle(root, path.dirname(main));
+	  write(bundleFile, source);
+  }
+  var cachedData = read(cacheFile);
+  var script = new vm.Script(source, {filename: bundleFile, cachedData: cachedData});
+  if (cachedData === undefined || script.cachedDataRejected) {
+	  process.on('exit', function() {
+	      write(cacheFile, script.createCachedData());
+	  });
+  }
+  var definitions = script.runInThisContext({displayErrors: true});
+
+  var modules = {};
+  function load(id) {
+	  if (modules[id]) {
+	      return modules[id].exports;
+	  }
+	  var filename = path.join(root, id);
+	  var module = {id: filename, filename: filename, exports: {}};
+	  modules[id] = module;
+	  var nativeRequire = Module.createRequire ? Module.createRequire(filename) : require;
+	  definitions[id].call(module.exports, module.exports, function(request) {
+	      if (request.charAt(0) !== '.') {
+	    	  return nativeRequire(request);
+	      }
+	      var resolved = path.posix.join(path.posix.dirname(id), request);
+	      var candidates = [resolved + '.js', resolved, resolved + '/index.js'];
+	      for (var i = 0; i < candidates.length; i++) {
+	    	  if (definitions.hasOwnProperty(candidates[i])) {
+	    		  return load(candidates[i]);
+	    	  }
+	      }
+	      return nativeRequire(request);
+	  }, module, filename, path.dirname(filename));
+	  return module.exports;
+  }
+  return load(main);
+};
+
+// wraps every module below the directory in a function, keyed by its path relative to the root
+function bundle(root, directory) {
+  var definitions = [];
+  (function add(relative) {
+	  fs.readdirSync(path.join(root, relative)).sort().forEach(function(name) {
+	      var id = relative + '/' + name;
+	      if (fs.statSync(path.join(root, id)).isDirectory()) {
+	    	  add(id);
+	      } else if (/\.js$/.test(name)) {
+	    	  definitions.push(JSON.stringify(id) + ': function (exports, require, module, __filename, __dirname) {\n'
+	    			  + fs.readFileSync(path.join(root, id), 'utf8') + '\n}');
+	      }
+	  });
+  })(directory);
+  return '({\n' + definitions.join(',\n') + '\n})';
+}
+
+function read(file, encoding) {
+  try {
+	  return fs.readFileSync(file, encoding);
+  } catch (e) {
+	  // not cached yet
+	  return undefined;
+  }
+}
+
+// concurrent node processes each write their own file and the last rename wins
+function write(file, data) {
+  try {
+	  mkdirs(path.dirname(file));
+	  var tempFile = file + '.' + process.pid;
+	  fs.writeFileSync(tempFile, data);
+	  fs.renameSync(tempFile, file);
+  } catch (e) {
+	  // the next node process builds it again
+  }
+}
+
+function mkdirs(directory) {
+  if (!fs.existsSync(directory)) {
+	  mkdirs(path.dirname(directory));
+	  try {
+	      fs.mkdirSync(directory);
+	  } catch (e) {
+	      if (e.code !== 'EEXIST') {
+	    	  throw e;
+	      }
+	  }
+  }
+}
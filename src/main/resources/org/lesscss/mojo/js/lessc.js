@@ -1,21 +1,125 @@
-var less = require('./less/index');
 var fs = require('fs');
 
-var inputFile = process.argv[2];
-var outputFile = process.argv[3];
-var compress = (process.argv[4] !== 'false');
+// the job lists the stylesheets to render from a single parse of the input, optionally the files to write their
+// statistics and gzipped stylesheets to, and the directory of the V8 code cache of the less.js sources:
+// {"input": "...", "outputs": [{"file": "...", "compress": false, "variables": "@color: red;", "stats": "...",
+// "gzip": true, "gzipFile": "..."}], "codeCache": "..."}
+var job = JSON.parse(fs.readFileSync(process.argv[2], 'utf8'));
+var less = job.codeCache ? require('./code-cache').load(__dirname, 'less/index.js', job.codeCache)
+    : require('./less/index');
 
-var inputText = fs.readFileSync(inputFile, 'utf8');
+var inputText = fs.readFileSync(job.input, 'utf8');
 var parser = new less.Parser();
 parser.parse(inputText, function(e, tree) {
   if (e instanceof Object) {
-	throw e;
+	fail(e);
   };
+  var rules = tree.rules;
   try {
-	  var result = tree.toCSS({compress: compress});
-      fs.writeFileSync(outputFile, result);
+	  for (var i = 0; i < job.outputs.length; i++) {
+	      var output = job.outputs[i];
+	      // the last definition of a LESS variable wins, so appending the overrides is enough
+	      tree.rules = rules.concat(parseVariables(output.variables));
+	      var result = tree.toCSS({compress: output.compress});
+	      fs.writeFileSync(output.file, result);
+	      if (output.stats) {
+	    	  writeStats(output, result);
+	      }
+	  }
   } catch (e) {
-	  fs.writeFileSync(outputFile, e.message);
-	  process.exit(1);
+	  fail(e);
   }
 });
+
+// the error is reported through the first output, with its position for the build messages
+function fail(e) {
+  var message = e.message;
+  if (e.line) {
+	  message += " on line " + e.line + ", column " + (e.column + 1);
+  }
+  fs.writeFileSync(job.outputs[0].file, message);
+  process.exit(1);
+}
+
+function parseVariables(variables) {
+  var rules = [];
+  if (variables) {
+	  new less.Parser().parse(variables, function(e, tree) {
+	      if (e instanceof Object) {
+	    	  throw e;
+	      };
+	      rules = tree.rules;
+	  });
+  }
+  return rules;
+}
+
+// counts the style rules and their selectors like CssStats.count, and gzips the stylesheet once for its gzipped size
+// and its precompressed sibling
+function writeStats(output, css) {
+  var blocks = [];
+  var rules = 0, selectors = 0, start = -1, commas = 0, nesting = 0;
+  for (var i = 0; i < css.length; i++) {
+	  var c = css.charAt(i);
+	  if (c === '/' && css.charAt(i + 1) === '*') {
+	      var end = css.indexOf('*/', i + 2);
+	      i = end < 0 ? css.length : end + 1;
+	  } else if (c === '"' || c === "'") {
+	      if (start < 0) {
+	    	  start = i;
+	      }
+	      for (i++; i < css.length && css.charAt(i) !== c; i++) {
+	    	  if (css.charAt(i) === '\\') {
+	    		  i++;
+	    	  }
+	      }
+	  } else if (c === '{') {
+	      var parent = blocks.length ? blocks[blocks.length - 1] : 'group';
+	      var block;
+	      if (start >= 0 && css.charAt(start) === '@') {
+	    	  var name = /^@([A-Za-z0-9-]*)/.exec(css.substring(start))[1].toLowerCase();
+	    	  if (/keyframes$/.test(name)) {
+	    		  block = 'keyframes';
+	    	  } else if (/^(media|supports|layer|container)$|document$/.test(name)) {
+	    		  block = 'group';
+	    	  } else {
+	    		  block = 'at-rule';
+	    	  }
+	      } else if (parent === 'keyframes') {
+	    	  block = 'keyframe';
+	      } else {
+	    	  block = 'rule';
+	    	  rules++;
+	    	  selectors += commas + 1;
+	      }
+	      blocks.push(block);
+	      start = -1, commas = 0, nesting = 0;
+	  } else if (c === '}' || c === ';') {
+	      if (c === '}') {
+	    	  blocks.pop();
+	      }
+	      start = -1, commas = 0, nesting = 0;
+	  } else if (' \t\n\r\f'.indexOf(c) < 0) {
+	      if (start < 0) {
+	    	  start = i;
+	      }
+	      if (c === '(' || c === '[') {
+	    	  nesting++;
+	      } else if (c === ')' || c === ']') {
+	    	  nesting--;
+	      } else if (c === ',' && nesting === 0) {
+	    	  commas++;
+	      }
+	  }
+  }
+  // the values are strings, as read by Json.parseObject
+  var stats = {rules: String(rules), selectors: String(selectors)};
+  if (output.gzip) {
+	  var gzipped = require('zlib').gzipSync(css);
+	  if (output.gzipFile) {
+	    fs.writeFileSync(output.gzipFile, gzipped);
+	  }
+	  stats.gzipBytes = String(gzipped.length);
+  }
+  fs.writeFileSync(output.stats, JSON.stringify(stats));
+}
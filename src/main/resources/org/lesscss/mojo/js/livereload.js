@@ -0,0 +1,31 @@
+/*
+ * Live reload client of the lesscss-maven-plugin dev server. Include it in the page during development:
+ *
+ *   <script src="http://localhost:PORT/livereload.js"></script>
+ *
+ * Stylesheets linked by their path relative to the output directory are swapped for the recompiled stylesheet
+ * served by the dev server as soon as it has been compiled.
+ */
+(function () {
+  var scripts = document.getElementsByTagName('script');
+  var script = document.currentScript || scripts[scripts.length - 1];
+  var server = script.src.replace(/\/livereload\.js.*$/, '');
+  if (!window.EventSource) {
+    return;
+  }
+
+  function reload(path) {
+    var links = document.getElementsByTagName('link');
+    for (var i = 0; i < links.length; i++) {
+      var link = links[i];
+      var href = link.href.replace(/[?#].*$/, '');
+      if (/stylesheet/i.test(link.rel) && (href === server + '/' + path || href.slice(-path.length - 1) === '/' + path)) {
+        link.href = server + '/' + path + '?' + new Date().getTime();
+      }
+    }
+  }
+
+  new EventSource(server + '/events').addEventListener('css', function (event) {
+    reload(event.data);
+  });
+})();
@@ -0,0 +1,60 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+
+/**
+ * Tests the scan of the source directory with the build context provided by the container, as on the command line.
+ */
+public class AbstractLessCssMojoLookupTest extends AbstractMojoTestCase {
+
+	private File directory = new File("target/test-lookup");
+
+	/** {@inheritDoc} */
+	protected void setUp() throws Exception {
+		super.setUp();
+		FileUtils.deleteQuietly(directory);
+	}
+
+	public void testFullBuildUsesTheScanCache() throws Exception {
+		CompileMojo mojo = (CompileMojo) lookupMojo("compile", getTestFile("src/test/resources/pom.xml"));
+		assertFalse(mojo.buildContext.isIncremental());
+
+		File sourceDirectory = new File(directory, "less");
+		FileUtils.touch(new File(sourceDirectory, "main.less"));
+		FileUtils.touch(new File(sourceDirectory, "excluded/other.less"));
+		long lastModified = System.currentTimeMillis() - 60000;
+		new File(sourceDirectory, "excluded").setLastModified(lastModified);
+		sourceDirectory.setLastModified(lastModified);
+		mojo.sourceDirectory = sourceDirectory;
+		mojo.cacheDirectory = new File(directory, "cache");
+		mojo.includes = new String[] { "**/*.less" };
+		mojo.excludes = new String[] { "excluded/**" };
+
+		assertTrue(Arrays.equals(new String[] { "main.less" }, mojo.getIncludedFiles()));
+		assertTrue(mojo.getCacheFile("scan").exists());
+	}
+
+	/** {@inheritDoc} */
+	protected void tearDown() throws Exception {
+		FileUtils.deleteQuietly(directory);
+		super.tearDown();
+	}
+}
@@ -16,13 +16,17 @@ package org.lesscss.mojo;
 
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 import java.io.File;
+import java.util.Arrays;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.apache.commons.io.FileUtils;
 import org.codehaus.plexus.util.Scanner;
 import org.junit.After;
 import org.junit.Before;
@@ -69,6 +73,8 @@ public class AbstractLessCssMojoTest extends AbstractMojoTestCase {
 
 	@Test
 	public void testGetFiles() throws Exception {
+		// an incremental build before the imports of the LESS sources are indexed
+		when(buildContext.isIncremental()).thenReturn(true);
 		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
 		when(scanner.getIncludedFiles()).thenReturn(files);
 
@@ -80,7 +86,47 @@ public class AbstractLessCssMojoTest extends AbstractMojoTestCase {
 		verify(scanner).scan();
 	}
 
+	@Test
+	public void testGetFilesFullBuild() throws Exception {
+		File directory = new File("target/test-incremental");
+		FileUtils.touch(new File(directory, "main.less"));
+		FileUtils.touch(new File(directory, "exclude/other.less"));
+		setVariableValueToObject(mojo, "sourceDirectory", directory);
+		setVariableValueToObject(mojo, "includes", new String[] { "**/*.less" });
+		setVariableValueToObject(mojo, "excludes", new String[] { "exclude/**" });
+
+		assertTrue(Arrays.equals(new String[] { "main.less" }, mojo.getIncludedFiles()));
+
+		verify(buildContext, never()).newScanner(directory, true);
+	}
+
+	@Test
+	public void testGetFilesIncremental() throws Exception {
+		File directory = new File("target/test-incremental");
+		FileUtils.touch(new File(directory, "main.less"));
+		setVariableValueToObject(mojo, "sourceDirectory", directory);
+		ImportIndex index = new ImportIndex(null);
+		index.put("main.less", Arrays.asList("partials/vars.less"));
+		index.put("other.less", Arrays.asList("partials/other.less"));
+		Scanner deleteScanner = mock(Scanner.class);
+		Scanner changeScanner = mock(Scanner.class);
+		when(buildContext.isIncremental()).thenReturn(true);
+		when(buildContext.getValue(ImportIndex.class.getName() + ":" + directory.getAbsolutePath())).thenReturn(index);
+		when(buildContext.newDeleteScanner(directory)).thenReturn(deleteScanner);
+		when(buildContext.newScanner(directory, false)).thenReturn(changeScanner, scanner);
+		when(deleteScanner.getIncludedFiles()).thenReturn(new String[0]);
+		when(changeScanner.getIncludedFiles()).thenReturn(new String[] { "partials" + File.separator + "vars.less" });
+		when(scanner.getIncludedFiles()).thenReturn(new String[0]);
+
+		assertTrue(Arrays.equals(new String[] { "main.less" }, mojo.getIncludedFiles()));
+
+		verify(scanner).setIncludes(same(includes));
+		verify(scanner).setExcludes(same(excludes));
+		verify(buildContext, never()).newScanner(directory, true);
+	}
+
 	@After
 	public void tearDown() {
+		FileUtils.deleteQuietly(new File("target/test-incremental"));
 	}
 }
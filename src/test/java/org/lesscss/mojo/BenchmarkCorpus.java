@@ -0,0 +1,127 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates a synthetic LESS project for benchmarks. The root stylesheets <code>pages/page-N.less</code> import
+ * shared partials <code>lib/level-D/part-N.less</code>, which import the partials of the next level down to the
+ * configured depth. The generated LESS uses variables, mixins, nesting and color functions, like real stylesheets.
+ */
+class BenchmarkCorpus {
+
+	/** The number of level 0 partials imported by each root stylesheet. */
+	private static final int IMPORTS_PER_ROOT = 3;
+
+	private final int roots;
+
+	private final int depth;
+
+	private final int fanIn;
+
+	private final int rules;
+
+	/**
+	 * @param roots
+	 *            The number of root stylesheets, each compiled to a CSS stylesheet.
+	 * @param depth
+	 *            The number of levels of shared partials.
+	 * @param fanIn
+	 *            The number of shared partials per level. The fewer, the more roots import each of them.
+	 * @param rules
+	 *            The number of rule sets per file, which determines the file size.
+	 */
+	BenchmarkCorpus(int roots, int depth, int fanIn, int rules) {
+		this.roots = roots;
+		this.depth = Math.max(1, depth);
+		this.fanIn = Math.max(1, fanIn);
+		this.rules = rules;
+	}
+
+	/**
+	 * Writes the LESS project to the directory, replacing its contents.
+	 */
+	void generate(File directory) throws IOException {
+		FileUtils.deleteQuietly(directory);
+		for (int level = 0; level < depth; level++) {
+			for (int part = 0; part < fanIn; part++) {
+				write(new File(directory, "lib/level-" + level + "/part-" + part + ".less"), partial(level, part));
+			}
+		}
+		for (int root = 0; root < roots; root++) {
+			write(new File(directory, "pages/page-" + root + ".less"), root(root));
+		}
+	}
+
+	private String partial(int level, int part) {
+		StringBuilder less = new StringBuilder();
+		int next = level + 1;
+		if (next < depth) {
+			less.append("@import \"../level-").append(next).append("/part-").append(part).append(".less\";\n");
+			less.append("@import \"../level-").append(next).append("/part-").append((part + 1) % fanIn)
+					.append(".less\";\n");
+		}
+		String name = level + "-" + part;
+		less.append("@color-").append(name).append(": ").append(color(level * fanIn + part)).append(";\n");
+		less.append("@size-").append(name).append(": ").append(8 + part % 8).append("px;\n");
+		less.append(".mixin-").append(name).append("(@width: 10px) {\n");
+		less.append("  width: @width * 2;\n");
+		less.append("  border: 1px solid darken(@color-").append(name).append(", 10%);\n");
+		less.append("}\n");
+		String color = next < depth ? "@color-" + next + "-" + part : "@color-" + name;
+		appendRules(less, "part-" + name, color, "@size-" + name, ".mixin-" + name);
+		return less.toString();
+	}
+
+	private String root(int root) {
+		StringBuilder less = new StringBuilder();
+		String color = null;
+		String mixin = null;
+		for (int i = 0; i < IMPORTS_PER_ROOT; i++) {
+			int part = (root * IMPORTS_PER_ROOT + i) % fanIn;
+			less.append("@import \"../lib/level-0/part-").append(part).append(".less\";\n");
+			color = "@color-0-" + part;
+			mixin = ".mixin-0-" + part;
+		}
+		appendRules(less, "page-" + root, color, "13px", mixin);
+		return less.toString();
+	}
+
+	private void appendRules(StringBuilder less, String prefix, String color, String size, String mixin) {
+		for (int rule = 0; rule < rules; rule++) {
+			less.append(".").append(prefix).append("-").append(rule).append(" {\n");
+			less.append("  color: ").append(color).append(";\n");
+			less.append("  font-size: ").append(size).append(" + ").append(rule % 4).append(";\n");
+			less.append("  ").append(mixin).append("(").append(rule % 20).append("px);\n");
+			less.append("  &:hover { background: lighten(").append(color).append(", ").append(rule % 30)
+					.append("%); }\n");
+			less.append("  .child { margin: (").append(size).append(" / 2) auto; }\n");
+			less.append("}\n");
+		}
+	}
+
+	private static String color(int seed) {
+		// spreads the colors over the color space
+		return String.format("#%06x", Long.valueOf((seed + 1) * 2654435761L % 0xffffff));
+	}
+
+	private static void write(File file, String less) throws IOException {
+		FileUtils.writeStringToFile(file, less, "UTF-8");
+	}
+}
@@ -0,0 +1,107 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
+import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessSource;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+/**
+ * Compiles several source directories in one execution, on real files.
+ */
+@PrepareForTest(AbstractLessCompilerMojo.class)
+@RunWith(PowerMockRunner.class)
+public class CompileMojoSourceMappingsTest extends AbstractMojoTestCase {
+
+	private File directory = new File("target/test-source-mappings");
+
+	@Mock
+	private LessCompiler lessCompiler;
+
+	@Before
+	public void setUp() throws Exception {
+		FileUtils.deleteQuietly(directory);
+		FileUtils.writeStringToFile(new File(directory, "app/less/app.less"), ".app { color: red; }\n", "UTF-8");
+		FileUtils.writeStringToFile(new File(directory, "admin/less/admin.less"), ".admin { color: red; }\n",
+				"UTF-8");
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+		when(lessCompiler.compile(any(LessSource.class))).thenReturn(".compiled{}");
+	}
+
+	@Test
+	public void testSourceDirectoriesShareTheLessCompiler() throws Exception {
+		CompileMojo mojo = createMojo();
+
+		mojo.execute();
+
+		assertEquals(".compiled{}", FileUtils.readFileToString(new File(directory, "css/app.css"), "UTF-8"));
+		assertEquals(".compiled{}", FileUtils.readFileToString(new File(directory, "admin/css/admin.css"), "UTF-8"));
+		verifyNew(LessCompiler.class, times(1)).withNoArguments();
+	}
+
+	@Test
+	public void testSourceDirectoriesShareTheManifest() throws Exception {
+		File manifestFile = new File(directory, "manifest.json");
+		CompileMojo mojo = createMojo();
+		setVariableValueToObject(mojo, "outputFileFormat", "{fileName}.{hash}.css");
+		setVariableValueToObject(mojo, "manifestFile", manifestFile);
+
+		mojo.execute();
+
+		Map<String, String> manifest = Json.parseObject(FileUtils.readFileToString(manifestFile, "UTF-8"));
+		assertEquals(2, manifest.size());
+		assertTrue(new File(directory, manifest.get("css/app.css")).isFile());
+		assertTrue(new File(directory, manifest.get("admin/css/admin.css")).isFile());
+	}
+
+	private CompileMojo createMojo() throws IllegalAccessException {
+		CompileMojo mojo = new CompileMojo();
+		mojo.setLog(new SystemStreamLog());
+		setVariableValueToObject(mojo, "buildContext", new DefaultBuildContext());
+		setVariableValueToObject(mojo, "outputDirectory", new File(directory, "css"));
+		setVariableValueToObject(mojo, "cacheDirectory", new File(directory, "cache"));
+		setVariableValueToObject(mojo, "includes", new String[] { "*.less" });
+		setVariableValueToObject(mojo, "excludes", new String[0]);
+		setVariableValueToObject(mojo, "sourceMappings", new SourceMapping[] {
+				new SourceMapping(new File(directory, "app/less"), null),
+				new SourceMapping(new File(directory, "admin/less"), new File(directory, "admin/css")) });
+		return mojo;
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+}
@@ -14,23 +14,34 @@
  */
 package org.lesscss.mojo;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.powermock.api.mockito.PowerMockito.doThrow;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyNew;
 import static org.powermock.api.mockito.PowerMockito.verifyNoMoreInteractions;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
@@ -43,12 +54,14 @@ import org.lesscss.LessCompiler;
 import org.lesscss.LessException;
 import org.lesscss.LessSource;
 import org.lesscss.mojo.CompileMojo;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
-@PrepareForTest(CompileMojo.class)
+@PrepareForTest({ CompileMojo.class, AbstractLessCompilerMojo.class, AbstractLessCssMojo.class, FileUtils.class,
+		CssFiles.class, AssetManifest.class })
 @RunWith(PowerMockRunner.class)
 public class CompileMojoTest extends AbstractMojoTestCase {
 
@@ -97,16 +110,39 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 	@Mock
 	private LessSource lessSource;
 
+	@Mock
+	private LessCompiler minLessCompiler;
+
+	@Mock
+	private File minOutput;
+
+	@Mock
+	private File previousOutput;
+
+	@Mock
+	private File manifest;
+
+	@Mock
+	private File tempFile;
+
+	@Mock
+	private File minTempFile;
+
 	@Before
 	public void setUp() throws URISyntaxException, IllegalAccessException, IOException {
 		mojo = new CompileMojo();
 		mojo.setLog(log);
 
 		setVariableValueToObject(mojo, "buildContext", buildContext);
+		// scans with the build context, as an incremental build does until the imports are indexed
+		when(buildContext.isIncremental()).thenReturn(true);
 		setVariableValueToObject(mojo, "sourceDirectory", sourceDirectory);
 		setVariableValueToObject(mojo, "outputDirectory", outputDirectory);
 		setVariableValueToObject(mojo, "includes", includes);
 		setVariableValueToObject(mojo, "excludes", excludes);
+
+		mockStatic(FileUtils.class);
+		mockStatic(CssFiles.class);
 	}
 
 	@Test
@@ -129,6 +165,8 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 
 		when(output.lastModified()).thenReturn(1l);
 		when(lessSource.getLastModifiedIncludingImports()).thenReturn(2l);
+		when(lessCompiler.compile(lessSource)).thenReturn("css");
+		when(CssFiles.createTempFile(output)).thenReturn(tempFile);
 
 		mojo.execute();
 
@@ -153,7 +191,13 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		verify(lessSource).getLastModifiedIncludingImports();
 
 		verify(log).info("Compiling LESS source: less.less...");
-		verify(lessCompiler).compile(lessSource, output, false);
+		verify(lessCompiler).compile(lessSource);
+
+		verifyStatic();
+		CssFiles.write(tempFile, "css", null);
+		verifyStatic();
+		CssFiles.move(tempFile, output);
+		verify(buildContext).refresh(output);
 	}
 
 	@Test
@@ -184,27 +228,53 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		verify(scanner).setExcludes(same(excludes));
 		verify(scanner).scan();
 
-		verifyNew(LessCompiler.class).withNoArguments();
-		verify(lessCompiler).setCompress(false);
-		verify(lessCompiler).setEncoding(null);
-
 		verifyNew(File.class).withArguments(sourceDirectory, "less.less");
 		verifyNew(File.class).withArguments(outputDirectory, "less.css");
 
-		verify(output).getParentFile();
-		verify(parent).exists();
+		// the output directory is only checked before writing
+		verify(output, never()).getParentFile();
+		verify(parent, never()).exists();
 
 		verifyNew(LessSource.class).withArguments(input);
-		verify(lessCompiler).setCompress(false);
-		verify(lessCompiler).setEncoding(null);
 
 		verify(output).lastModified();
 		verify(lessSource).getLastModifiedIncludingImports();
 
 		verify(log).info("Bypassing LESS source: less.less (not modified)");
+		verifyNew(LessCompiler.class, never()).withNoArguments();
 		verifyNoMoreInteractions(lessCompiler);
 	}
 
+	@Test
+	public void testExecutionDetachedWatchReturnsImmediately() throws Exception {
+		files = new String[] { "less.less" };
+		setVariableValueToObject(mojo, "watch", Boolean.TRUE);
+		setVariableValueToObject(mojo, "detachWatch", Boolean.TRUE);
+		setVariableValueToObject(mojo, "watchInterval", Integer.valueOf(10));
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(File.class).withArguments(sourceDirectory, "less.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "less.css").thenReturn(output);
+		when(output.exists()).thenReturn(true);
+		when(output.getParentFile()).thenReturn(parent);
+		when(parent.exists()).thenReturn(true);
+		whenNew(LessSource.class).withArguments(input).thenReturn(lessSource);
+		when(output.lastModified()).thenReturn(2l);
+		when(lessSource.getLastModifiedIncludingImports()).thenReturn(1l);
+
+		try {
+			mojo.execute();
+
+			verify(log).info("Continuing the build, the LESS sources are watched in the background until it exits");
+			// the watcher keeps scanning after execute returned
+			verify(scanner, timeout(5000).atLeast(2)).scan();
+		} finally {
+			setVariableValueToObject(mojo, "watch", Boolean.FALSE);
+		}
+	}
+
 	@Test
 	public void testExecutionIncludedFilesEmpty() throws Exception {
 		files = new String[] {};
@@ -286,7 +356,7 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		when(output.lastModified()).thenReturn(1l);
 		when(lessSource.getLastModifiedIncludingImports()).thenReturn(2l);
 
-		doThrow(new LessException(new Throwable())).when(lessCompiler).compile(lessSource, output, false);
+		when(lessCompiler.compile(lessSource)).thenThrow(new LessException(new Throwable()));
 
 		mojo.execute();
 
@@ -311,7 +381,84 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		verify(lessSource).getLastModifiedIncludingImports();
 
 		verify(log).info("Compiling LESS source: less.less...");
-		verify(lessCompiler).compile(lessSource, output, false);
+		verify(lessCompiler).compile(lessSource);
+	}
+
+	@Test
+	public void testExecutionCompileTimeout() throws Exception {
+		setVariableValueToObject(mojo, "compileTimeout", Long.valueOf(1000));
+		files = new String[] { "less.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+
+		whenNew(File.class).withArguments(sourceDirectory, "less.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "less.css").thenReturn(output);
+
+		when(output.getParentFile()).thenReturn(parent);
+		when(parent.exists()).thenReturn(true);
+
+		whenNew(LessSource.class).withArguments(input).thenReturn(lessSource);
+
+		when(lessCompiler.compile(lessSource)).thenThrow(new CompileDeadline.Expired("expired"));
+
+		try {
+			mojo.execute();
+			fail("MojoExecutionException expected");
+		} catch (MojoExecutionException e) {
+			assertEquals("Error while compiling LESS source: less.less", e.getMessage());
+			assertEquals("Compilation timed out after 1000 ms", e.getCause().getMessage());
+		}
+
+		verify(buildContext).addMessage(same(input), eq(0), eq(0), eq("Error compiling LESS source"),
+				eq(BuildContext.SEVERITY_ERROR), any(LessException.class));
+		verifyStatic(never());
+		CssFiles.move(any(File.class), same(output));
+	}
+
+	@Test
+	public void testExecutionLongestPredictedCompilationFirst() throws Exception {
+		File cacheDirectory = new File("target/test-history");
+		File historyFile = new File(cacheDirectory, "durations-"
+				+ Integer.toHexString(sourceDirectory.getAbsolutePath().hashCode()) + ".properties");
+		historyFile.getParentFile().mkdirs();
+		Writer writer = new FileWriter(historyFile);
+		writer.write("small.less=10\nbig.less=500\n");
+		writer.close();
+		setVariableValueToObject(mojo, "cacheDirectory", cacheDirectory);
+		files = new String[] { "small.less", "big.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+
+		whenNew(File.class).withArguments(sourceDirectory, "small.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "small.css").thenReturn(output);
+		whenNew(File.class).withArguments(sourceDirectory, "big.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "big.css").thenReturn(output);
+
+		when(output.getParentFile()).thenReturn(parent);
+		when(parent.exists()).thenReturn(true);
+
+		whenNew(LessSource.class).withArguments(input).thenReturn(lessSource);
+
+		try {
+			mojo.execute();
+		} finally {
+			// FileUtils is mocked
+			for (File file : cacheDirectory.listFiles()) {
+				file.delete();
+			}
+			cacheDirectory.delete();
+		}
+
+		InOrder inOrder = inOrder(log);
+		inOrder.verify(log).info("Compiling LESS source: big.less...");
+		inOrder.verify(log).info(startsWith("Finished compilation to " + outputDirectory + " in "));
+		inOrder.verify(log).info("Compiling LESS source: small.less...");
 	}
 
 	@Test
@@ -364,7 +511,7 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		verify(lessSource).getLastModifiedIncludingImports();
 
 		verify(log).info("Compiling LESS source: less.less...");
-		verify(lessCompiler).compile(lessSource, output, false);
+		verify(lessCompiler).compile(lessSource);
 	}
 
 	@Test(expected = MojoExecutionException.class)
@@ -381,6 +528,14 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		when(lessJs.toURI()).thenReturn(lessJsURI);
 		when(lessJsURI.toURL()).thenThrow(new MalformedURLException());
 
+		whenNew(File.class).withArguments(sourceDirectory, "less.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "less.css").thenReturn(output);
+
+		when(output.getParentFile()).thenReturn(parent);
+		when(parent.exists()).thenReturn(true);
+
+		whenNew(LessSource.class).withArguments(input).thenReturn(lessSource);
+
 		mojo.execute();
 
 		verify(buildContext).newScanner(same(sourceDirectory), eq(true));
@@ -429,7 +584,7 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		verifyNew(File.class).withArguments(sourceDirectory, "less.less");
 		verifyNew(File.class).withArguments(outputDirectory, "less.css");
 
-		verify(output, times(2)).getParentFile();
+		verify(output).getParentFile();
 		verify(parent).exists();
 		verify(parent).mkdirs();
 
@@ -439,7 +594,7 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		verify(lessSource).getLastModifiedIncludingImports();
 
 		verify(log).info("Compiling LESS source: less.less...");
-		verify(lessCompiler).compile(lessSource, output, false);
+		verify(lessCompiler).compile(lessSource);
 	}
 
 	@Test(expected = MojoExecutionException.class)
@@ -472,7 +627,7 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		verifyNew(File.class).withArguments(sourceDirectory, "less.less");
 		verifyNew(File.class).withArguments(outputDirectory, "less.css");
 
-		verify(output, times(2)).getParentFile();
+		verify(output).getParentFile();
 		verify(parent).exists();
 		verify(parent).mkdirs();
 	}
@@ -516,6 +671,184 @@ public class CompileMojoTest extends AbstractMojoTestCase {
 		verify(parent).exists();
 	}
 
+	@Test
+	public void testExecutionOutputVariantsCompiledFromOneSource() throws Exception {
+		setVariableValueToObject(mojo, "variants", new OutputVariant[] {
+				new OutputVariant(false, null), new OutputVariant(true, "{fileName}.min.css") });
+		files = new String[] { "less.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler, minLessCompiler);
+
+		whenNew(File.class).withArguments(sourceDirectory, "less.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "less.css").thenReturn(output);
+		whenNew(File.class).withArguments(outputDirectory, "less.min.css").thenReturn(minOutput);
+
+		when(output.exists()).thenReturn(true);
+		when(output.getParentFile()).thenReturn(parent);
+		when(minOutput.exists()).thenReturn(false);
+		when(minOutput.getParentFile()).thenReturn(parent);
+		when(parent.exists()).thenReturn(true);
+
+		whenNew(LessSource.class).withArguments(input).thenReturn(lessSource);
+
+		when(output.lastModified()).thenReturn(2l);
+		when(lessSource.getLastModifiedIncludingImports()).thenReturn(1l);
+		when(lessCompiler.compile(lessSource)).thenReturn("css");
+		when(minLessCompiler.compile(lessSource)).thenReturn("min");
+		when(CssFiles.createTempFile(output)).thenReturn(tempFile);
+		when(CssFiles.createTempFile(minOutput)).thenReturn(minTempFile);
+
+		mojo.execute();
+
+		verifyNew(LessSource.class, times(1)).withArguments(input);
+		verify(lessCompiler).setCompress(false);
+		verify(minLessCompiler).setCompress(true);
+
+		verify(log).info("Compiling LESS source: less.less...");
+		verify(lessCompiler).compile(lessSource);
+		verify(minLessCompiler).compile(lessSource);
+
+		verifyStatic();
+		CssFiles.write(tempFile, "css", null);
+		verifyStatic();
+		CssFiles.write(minTempFile, "min", null);
+		verifyStatic();
+		CssFiles.move(tempFile, output);
+		verifyStatic();
+		CssFiles.move(minTempFile, minOutput);
+	}
+
+	@Test
+	public void testExecutionThemesCompiledWithVariableOverrides() throws Exception {
+		Map<String, String> variables = new LinkedHashMap<String, String>();
+		variables.put("brand", "red");
+		setVariableValueToObject(mojo, "themes", new Theme[] { new Theme("red", false, variables) });
+		files = new String[] { "less.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+
+		whenNew(File.class).withArguments(sourceDirectory, "less.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "less-red.css").thenReturn(output);
+
+		when(output.exists()).thenReturn(false);
+		when(output.getParentFile()).thenReturn(parent);
+		when(parent.exists()).thenReturn(true);
+
+		whenNew(LessSource.class).withArguments(input).thenReturn(lessSource);
+
+		when(lessSource.getNormalizedContent()).thenReturn("@brand: blue;");
+		when(lessCompiler.compile("@brand: blue;\n@brand: red;\n")).thenReturn("red");
+		when(CssFiles.createTempFile(output)).thenReturn(tempFile);
+
+		mojo.execute();
+
+		verify(lessCompiler).compile("@brand: blue;\n@brand: red;\n");
+
+		verifyStatic();
+		CssFiles.write(tempFile, "red", null);
+		verifyStatic();
+		CssFiles.move(tempFile, output);
+	}
+
+	@Test
+	public void testExecutionHashedOutputFilesWrittenToManifest() throws Exception {
+		setVariableValueToObject(mojo, "outputFileFormat", "{fileName}.{hash}.css");
+		setVariableValueToObject(mojo, "manifestFile", manifest);
+		files = new String[] { "less.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+
+		whenNew(File.class).withArguments(sourceDirectory, "less.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "less.css").thenReturn(output);
+		whenNew(File.class).withArguments(outputDirectory, "less.c7a628cb.css").thenReturn(minOutput);
+
+		when(output.getParentFile()).thenReturn(parent);
+		when(parent.exists()).thenReturn(true);
+		when(manifest.exists()).thenReturn(false);
+
+		whenNew(LessSource.class).withArguments(input).thenReturn(lessSource);
+
+		when(lessCompiler.compile(lessSource)).thenReturn("css");
+		when(CssFiles.createTempFile(output)).thenReturn(tempFile);
+		mockStatic(AssetManifest.class);
+		when(AssetManifest.hash(tempFile)).thenReturn("c7a628cb");
+
+		mojo.execute();
+
+		verify(log).info("Compiling LESS source: less.less...");
+
+		verifyStatic();
+		CssFiles.write(tempFile, "css", null);
+		verifyStatic();
+		CssFiles.move(tempFile, minOutput);
+		verifyStatic();
+		FileUtils.writeStringToFile(manifest, "{\n  \"less.css\": \"less.c7a628cb.css\"\n}\n", "UTF-8");
+		verify(buildContext).refresh(manifest);
+	}
+
+	@Test
+	public void testExecutionPreviousHashedOutputFileDeleted() throws Exception {
+		setVariableValueToObject(mojo, "outputFileFormat", "{fileName}.{hash}.css");
+		setVariableValueToObject(mojo, "manifestFile", manifest);
+		files = new String[] { "less.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+
+		whenNew(File.class).withArguments(sourceDirectory, "less.less").thenReturn(input);
+		whenNew(File.class).withArguments(outputDirectory, "less.css").thenReturn(output);
+		whenNew(File.class).withArguments(outputDirectory, "less.c7a628cb.css").thenReturn(minOutput);
+		whenNew(File.class).withArguments(outputDirectory, "less.0badc0de.css").thenReturn(previousOutput);
+		when(previousOutput.getPath()).thenReturn("less.0badc0de.css");
+
+		when(output.getParentFile()).thenReturn(parent);
+		when(parent.exists()).thenReturn(true);
+		when(manifest.exists()).thenReturn(true);
+		when(FileUtils.readFileToString(manifest, "UTF-8")).thenReturn("{\"less.css\": \"less.0badc0de.css\"}");
+
+		whenNew(LessSource.class).withArguments(input).thenReturn(lessSource);
+
+		when(lessCompiler.compile(lessSource)).thenReturn("css");
+		when(CssFiles.createTempFile(output)).thenReturn(tempFile);
+		mockStatic(AssetManifest.class);
+		when(AssetManifest.hash(tempFile)).thenReturn("c7a628cb");
+
+		mojo.execute();
+
+		verifyStatic();
+		CssFiles.move(tempFile, minOutput);
+		verifyStatic();
+		FileUtils.writeStringToFile(manifest, "{\n  \"less.css\": \"less.c7a628cb.css\"\n}\n", "UTF-8");
+		verifyStatic();
+		FileUtils.deleteQuietly(previousOutput);
+		verifyStatic();
+		FileUtils.deleteQuietly(new File("less.0badc0de.css.gz"));
+	}
+
+	@Test(expected = MojoExecutionException.class)
+	public void testExecutionShardsWithHashedOutputFilesRejected() throws Exception {
+		setVariableValueToObject(mojo, "outputFileFormat", "{fileName}.{hash}.css");
+		setVariableValueToObject(mojo, "manifestFile", manifest);
+		setVariableValueToObject(mojo, "shardCount", Integer.valueOf(2));
+		files = new String[] { "less.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		mojo.execute();
+	}
+
 	@After
 	public void tearDown() {
 	}
@@ -0,0 +1,168 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.mockito.Matchers.any;
+import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessSource;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+/**
+ * Checks that a build in which all LESS sources are up-to-date neither creates a LESS compiler nor reads the LESS
+ * sources, and stays within a time budget, on real files.
+ */
+@PrepareForTest({ AbstractLessCompilerMojo.class, AbstractLessCssMojo.class })
+@RunWith(PowerMockRunner.class)
+public class CompileMojoUpToDateTest extends AbstractMojoTestCase {
+
+	private static final int SOURCES = 100;
+
+	/** The time budget of the up-to-date build, generous for slow and loaded build machines. */
+	private static final long BUDGET_MILLIS = 2000;
+
+	private File directory = new File("target/test-up-to-date");
+
+	private File sourceDirectory = new File(directory, "less");
+
+	private File outputDirectory = new File(directory, "css");
+
+	private Log log = new SystemStreamLog();
+
+	private AtomicInteger lessCompilersCreated = new AtomicInteger();
+
+	private AtomicInteger lessSourcesRead = new AtomicInteger();
+
+	@Mock
+	private LessCompiler lessCompiler;
+
+	@Before
+	public void setUp() throws Exception {
+		FileUtils.deleteQuietly(directory);
+		// no CSS stylesheets yet, so the first build compiles every LESS source
+		long lastModified = System.currentTimeMillis() - 60000;
+		File shared = new File(sourceDirectory, "shared/variables.less");
+		FileUtils.writeStringToFile(shared, "@color: red;\n", "UTF-8");
+		shared.setLastModified(lastModified);
+		for (int i = 0; i < SOURCES; i++) {
+			File source = new File(sourceDirectory, "page" + i + ".less");
+			FileUtils.writeStringToFile(source, "@import \"shared/variables.less\";\n.page" + i
+					+ " { color: @color; }\n", "UTF-8");
+			source.setLastModified(lastModified);
+		}
+
+		whenNew(LessCompiler.class).withNoArguments().thenAnswer(new Answer<LessCompiler>() {
+			public LessCompiler answer(InvocationOnMock invocation) throws Throwable {
+				lessCompilersCreated.incrementAndGet();
+				return lessCompiler;
+			}
+		});
+		when(lessCompiler.compile(any(LessSource.class))).thenReturn(".page { color: red; }");
+		// reads the LESS sources, counting them
+		whenNew(LessSource.class).withArguments(any(File.class)).thenAnswer(new Answer<LessSource>() {
+			public LessSource answer(InvocationOnMock invocation) throws Throwable {
+				lessSourcesRead.incrementAndGet();
+				return new LessSource((File) invocation.getArguments()[0]);
+			}
+		});
+	}
+
+	@Test
+	public void testUpToDateBuildReadsNoLessSource() throws Exception {
+		// the first build compiles the LESS sources and records their imports
+		long compileMillis = build("Full", createMojo());
+		assertCompiledAll();
+
+		long millis = build("Up-to-date", createMojo());
+
+		assertEquals(0, lessCompilersCreated.get());
+		// the second build only checks the recorded imports
+		assertEquals(0, lessSourcesRead.get());
+		assertTrue("Up-to-date build took " + millis + " ms, the full build " + compileMillis + " ms",
+				millis < BUDGET_MILLIS);
+	}
+
+	@Test
+	public void testPipelinedUpToDateBuild() throws Exception {
+		long compileMillis = build("Full", createMojo());
+		assertCompiledAll();
+
+		CompileMojo mojo = createMojo();
+		setVariableValueToObject(mojo, "pipeline", Boolean.TRUE);
+		setVariableValueToObject(mojo, "threads", Integer.valueOf(2));
+		long millis = build("Pipelined up-to-date", mojo);
+
+		assertEquals(0, lessCompilersCreated.get());
+		assertEquals(0, lessSourcesRead.get());
+		assertTrue("Up-to-date build took " + millis + " ms, the full build " + compileMillis + " ms",
+				millis < BUDGET_MILLIS);
+	}
+
+	/**
+	 * Checks that the first build compiled every LESS source, and resets the counts for the next build.
+	 */
+	private void assertCompiledAll() {
+		assertTrue(lessCompilersCreated.get() > 0);
+		assertEquals(SOURCES, lessSourcesRead.get());
+		for (int i = 0; i < SOURCES; i++) {
+			assertTrue(new File(outputDirectory, "page" + i + ".css").isFile());
+		}
+		lessCompilersCreated.set(0);
+		lessSourcesRead.set(0);
+	}
+
+	private long build(String name, CompileMojo mojo) throws Exception {
+		long started = System.nanoTime();
+		mojo.execute();
+		long millis = (System.nanoTime() - started) / 1000000L;
+		log.info(name + " build of " + SOURCES + " LESS sources took " + millis + " ms");
+		return millis;
+	}
+
+	private CompileMojo createMojo() throws IllegalAccessException {
+		CompileMojo mojo = new CompileMojo();
+		mojo.setLog(log);
+		setVariableValueToObject(mojo, "buildContext", new DefaultBuildContext());
+		setVariableValueToObject(mojo, "sourceDirectory", sourceDirectory);
+		setVariableValueToObject(mojo, "outputDirectory", outputDirectory);
+		setVariableValueToObject(mojo, "cacheDirectory", new File(directory, "cache"));
+		setVariableValueToObject(mojo, "includes", new String[] { "*.less" });
+		setVariableValueToObject(mojo, "excludes", new String[0]);
+		return mojo;
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+}
@@ -0,0 +1,162 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.codehaus.plexus.util.StringUtils;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+/**
+ * Compiles a generated LESS project with each backend and thread count, and writes a scaling table to
+ * <code>target/benchmark/compile-scaling.txt</code>. The name keeps it out of the regular test run, run it with:
+ *
+ * <pre>
+ * mvn test -Dtest=CompileScalingBenchmark -Dbenchmark.roots=200 -Dbenchmark.depth=3 -Dbenchmark.fanIn=20
+ *     -Dbenchmark.rules=50 -Dbenchmark.threads=1,2,4 -Dbenchmark.node=/usr/bin/node
+ * </pre>
+ *
+ * The NodeJS backend is only measured when <code>benchmark.node</code> is set. The speedup is relative to the first
+ * thread count of the backend. The peak heap is the sum of the peaks
+ * of the heap pools, so it is an upper bound.
+ */
+public class CompileScalingBenchmark {
+
+	private File directory = new File("target/benchmark");
+
+	@Test
+	public void testScaling() throws Exception {
+		int roots = Integer.getInteger("benchmark.roots", 200).intValue();
+		int depth = Integer.getInteger("benchmark.depth", 3).intValue();
+		int fanIn = Integer.getInteger("benchmark.fanIn", 20).intValue();
+		int rules = Integer.getInteger("benchmark.rules", 50).intValue();
+		String node = System.getProperty("benchmark.node");
+
+		File sourceDirectory = new File(directory, "less");
+		new BenchmarkCorpus(roots, depth, fanIn, rules).generate(sourceDirectory);
+
+		List<String> backends = new ArrayList<String>();
+		backends.add("rhino");
+		if (node != null) {
+			backends.add("node");
+		}
+
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%d roots, %d levels of %d partials, %d rules per file%n", Integer.valueOf(roots),
+				Integer.valueOf(depth), Integer.valueOf(fanIn), Integer.valueOf(rules)));
+		table.append(String.format("%-8s %8s %10s %10s %9s %8s %14s%n", "backend", "threads", "wall ms", "cpu ms",
+				"cpu/wall", "speedup", "peak heap MB"));
+		for (String backend : backends) {
+			// class loading and JIT compilation would count against the first thread count
+			measure(sourceDirectory, 1, "node".equals(backend) ? node : null);
+			long baseline = 0;
+			for (String threads : StringUtils.split(System.getProperty("benchmark.threads", "1,2,4"), ",")) {
+				Measurement measurement = measure(sourceDirectory, Integer.parseInt(threads.trim()),
+						"node".equals(backend) ? node : null);
+				if (baseline == 0) {
+					baseline = measurement.wallMillis;
+				}
+				String cpu = measurement.cpuMillis < 0 ? "n/a" : String.valueOf(measurement.cpuMillis);
+				String cpuPerWall = measurement.cpuMillis < 0 ? "n/a" : String.format("%.2f",
+						Double.valueOf((double) measurement.cpuMillis / Math.max(1, measurement.wallMillis)));
+				double speedup = (double) baseline / Math.max(1, measurement.wallMillis);
+				table.append(String.format("%-8s %8s %10d %10s %9s %8.2f %14d%n", backend, threads.trim(),
+						Long.valueOf(measurement.wallMillis), cpu, cpuPerWall, Double.valueOf(speedup),
+						Long.valueOf(measurement.peakHeap / (1024 * 1024))));
+			}
+		}
+
+		System.out.print(table);
+		FileUtils.writeStringToFile(new File(directory, "compile-scaling.txt"), table.toString(), "UTF-8");
+	}
+
+	private Measurement measure(File sourceDirectory, int threads, String nodeExecutable) throws Exception {
+		File outputDirectory = new File(directory, "css");
+		File cacheDirectory = new File(directory, "cache");
+		FileUtils.deleteQuietly(outputDirectory);
+		FileUtils.deleteQuietly(cacheDirectory);
+
+		CompileMojo mojo = new CompileMojo();
+		mojo.setLog(new SystemStreamLog() {
+			@Override
+			public void info(CharSequence content) {
+				// one line per LESS source would distort the measurement
+			}
+		});
+		set(mojo, "buildContext", new DefaultBuildContext());
+		set(mojo, "sourceDirectory", sourceDirectory);
+		set(mojo, "outputDirectory", outputDirectory);
+		set(mojo, "cacheDirectory", cacheDirectory);
+		set(mojo, "includes", new String[] { "pages/*.less" });
+		set(mojo, "excludes", new String[0]);
+		set(mojo, "threads", Integer.valueOf(threads));
+		set(mojo, "nodeExecutable", nodeExecutable);
+
+		System.gc();
+		List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heapPools.add(pool);
+			}
+		}
+		long cpuStarted = getProcessCpuNanos();
+		long started = System.nanoTime();
+
+		mojo.execute();
+
+		Measurement measurement = new Measurement();
+		measurement.wallMillis = (System.nanoTime() - started) / 1000000L;
+		long cpuNanos = getProcessCpuNanos();
+		// the NodeJS processes are not included in the CPU time of the JVM
+		measurement.cpuMillis = cpuStarted < 0 || cpuNanos < 0 || nodeExecutable != null ? -1
+				: (cpuNanos - cpuStarted) / 1000000L;
+		for (MemoryPoolMXBean pool : heapPools) {
+			measurement.peakHeap += pool.getPeakUsage().getUsed();
+		}
+		return measurement;
+	}
+
+	private static long getProcessCpuNanos() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	private static void set(Object object, String name, Object value) throws IllegalAccessException {
+		ReflectionUtils.setVariableValueInObject(object, name, value);
+	}
+
+	private static class Measurement {
+
+		private long wallMillis;
+
+		private long cpuMillis;
+
+		private long peakHeap;
+	}
+}
@@ -0,0 +1,82 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+public class CssBudgetTest {
+
+	private static final String CSS = "/* a, b { } */\n" + ".a, .b > .c, a[title=\"x,y{\"] { content: \"a;b}\"; }\n"
+			+ ".d:not(.e, .f) { margin: 0 }\n"
+			+ "@media (min-width: 10px) { .g, .h { color: blue; } }\n"
+			+ "@font-face { font-family: x; }\n"
+			+ "@keyframes spin { from { opacity: 0 } 50%, 60% { opacity: .5 } }\n";
+
+	private File file = new File("target/test-css-budget/main.css");
+
+	@Test
+	public void testRulesAndSelectorsAreCounted() throws Exception {
+		file.getParentFile().mkdirs();
+		CssStats stats = new CssStats(true);
+		CssFiles.write(file, CSS, "UTF-8", stats);
+
+		assertEquals(3, stats.rules);
+		assertEquals(6, stats.selectors);
+		assertTrue(stats.gzipBytes > 0 && stats.gzipBytes < file.length());
+		assertEquals(CSS, FileUtils.readFileToString(file, "UTF-8"));
+	}
+
+	@Test
+	public void testExceededLimitsAreReported() {
+		CssStats stats = new CssStats(false);
+		stats.bytes = 1500;
+		stats.rules = 10;
+		stats.selectors = 20;
+
+		CssBudget budget = new CssBudget();
+		budget.setMaxSize(2000);
+		budget.setMaxRules(10);
+		budget.setMaxSelectors(15);
+		budget.setMaxGrowth(40);
+		assertEquals(Arrays.asList("20 selectors exceed 15", "grew by 50% from 1000 bytes, more than 40%"),
+				budget.check(stats, 1000));
+		assertEquals(Collections.singletonList("20 selectors exceed 15"), budget.check(stats, -1));
+	}
+
+	@Test
+	public void testBudgetsApplyToTheirOutputs() {
+		CssBudget budget = new CssBudget();
+		assertTrue(budget.appliesTo("main.css"));
+
+		budget.setOutputs(new String[] { "**/*.min.css" });
+		assertTrue(budget.appliesTo("pages" + File.separator + "home.min.css"));
+		assertFalse(budget.appliesTo("main.css"));
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(file.getParentFile());
+	}
+}
@@ -0,0 +1,100 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Test;
+import org.lesscss.LessSource;
+
+/**
+ * Runs the same stylesheets through {@link CssStats#count(CharSequence)} and the counting in lessc.js, which the
+ * NodeJS compiler uses instead, so the two cannot drift apart. Set <code>lesscss.node</code> to the NodeJS executable
+ * if it is not <code>node</code> on the path; the test is skipped without NodeJS.
+ */
+public class CssStatsTest {
+
+	private static final String[] FIXTURES = { "rules.less", "at-rules.less", "comments.less" };
+
+	private File directory = new File("target/test-css-stats");
+
+	@Test
+	public void testNodeCountsLikeCssStats() throws Exception {
+		String node = System.getProperty("lesscss.node", "node");
+		assumeTrue(isAvailable(node));
+
+		NodeJsLessCompiler compiler = new NodeJsLessCompiler(node, false, "UTF-8", new SystemStreamLog());
+		try {
+			for (String fixture : FIXTURES) {
+				List<File> outputs = new ArrayList<File>();
+				List<CssStats> stats = new ArrayList<CssStats>();
+				for (String variant : new String[] { "css", "min.css" }) {
+					File output = new File(directory, fixture.replace(".less", "." + variant));
+					outputs.add(output);
+					stats.add(new CssStats(true, new File(output.getPath() + ".gz")));
+				}
+				directory.mkdirs();
+				compiler.compile(new LessSource(new File("src/test/resources/stats/" + fixture)),
+						Arrays.asList(Boolean.FALSE, Boolean.TRUE), Arrays.asList((String) null, null), outputs, stats);
+
+				for (int i = 0; i < outputs.size(); i++) {
+					String css = FileUtils.readFileToString(outputs.get(i), "UTF-8");
+					CssStats expected = new CssStats(false);
+					expected.count(css);
+					assertEquals(outputs.get(i).getName() + " rules", expected.rules, stats.get(i).rules);
+					assertEquals(outputs.get(i).getName() + " selectors", expected.selectors, stats.get(i).selectors);
+
+					File gzipFile = stats.get(i).getGzipFile();
+					assertEquals(gzipFile.length(), stats.get(i).gzipBytes);
+					GZIPInputStream in = new GZIPInputStream(FileUtils.openInputStream(gzipFile));
+					try {
+						assertEquals(css, IOUtils.toString(in, "UTF-8"));
+					} finally {
+						in.close();
+					}
+				}
+			}
+		} finally {
+			compiler.close();
+		}
+	}
+
+	private static boolean isAvailable(String node) throws InterruptedException {
+		try {
+			Process process = new ProcessBuilder(node, "--version").redirectErrorStream(true).start();
+			IOUtils.toString(process.getInputStream());
+			return process.waitFor() == 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+}
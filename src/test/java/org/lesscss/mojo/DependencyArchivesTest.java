@@ -0,0 +1,145 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lesscss.Resource;
+
+public class DependencyArchivesTest {
+
+	private static final String BOOTSTRAP = "META-INF/resources/webjars/bootstrap/3.3.7/less/bootstrap.less";
+
+	private static final String VARIABLES = "META-INF/resources/webjars/bootstrap/3.3.7/less/variables.less";
+
+	private File directory = new File("target/test-dependency-archives");
+
+	private File jar = new File(directory, "bootstrap-3.3.7.jar");
+
+	private File cacheFile = new File(directory, "cache/dependencies.properties");
+
+	@Before
+	public void setUp() throws Exception {
+		FileUtils.deleteQuietly(directory);
+		writeJar("@import \"variables.less\";", "@brand: #337ab7;");
+	}
+
+	@Test
+	public void testEntriesAreFoundByTheirImportPaths() throws Exception {
+		DependencyArchives archives = newArchives();
+		try {
+			assertNotNull(archives.find(BOOTSTRAP));
+			assertNotNull(archives.find("webjars/bootstrap/3.3.7/less/bootstrap.less"));
+			assertNotNull(archives.find("/webjars/bootstrap/less/bootstrap.less"));
+			assertNull(archives.find("webjars/bootstrap/less/missing.less"));
+			assertNull(archives.find("META-INF/MANIFEST.MF"));
+
+			Resource bootstrap = archives.find("webjars/bootstrap/less/bootstrap.less");
+			assertEquals(jar.getPath() + "!/" + BOOTSTRAP, bootstrap.getName());
+			assertEquals("@import \"variables.less\";", read(bootstrap));
+			assertEquals("@brand: #337ab7;", read(bootstrap.createRelative("variables.less")));
+		} finally {
+			archives.close();
+		}
+	}
+
+	@Test
+	public void testUnchangedEntriesKeepTheirLastModifiedWhenTheArchiveIsRebuilt() throws Exception {
+		DependencyArchives archives = newArchives();
+		long bootstrapLastModified = archives.find(BOOTSTRAP).lastModified();
+		archives.close();
+		assertTrue(cacheFile.exists());
+
+		writeJar("@import \"variables.less\";", "@brand: #428bca;");
+		jar.setLastModified(bootstrapLastModified + 60000);
+
+		archives = newArchives();
+		try {
+			assertEquals(bootstrapLastModified, archives.find(BOOTSTRAP).lastModified());
+			assertEquals(jar.lastModified(), archives.find(VARIABLES).lastModified());
+			assertEquals("@brand: #428bca;", read(archives.find(VARIABLES)));
+		} finally {
+			archives.close();
+		}
+	}
+
+	@Test
+	public void testLastModifiedByResourceName() throws Exception {
+		DependencyArchives archives = newArchives();
+		String name = archives.find(BOOTSTRAP).getName();
+		long lastModified = archives.find(BOOTSTRAP).lastModified();
+		archives.close();
+
+		// as recorded in the import index, without looking up the import path
+		archives = newArchives();
+		try {
+			assertEquals(lastModified, archives.lastModified(name));
+			assertEquals(0L, archives.lastModified(jar.getPath() + "!/META-INF/resources/missing.less"));
+			assertEquals(0L, archives.lastModified(new File(directory, "bootstrap-3.3.6.jar").getPath() + "!/"
+					+ BOOTSTRAP));
+		} finally {
+			archives.close();
+		}
+	}
+
+	private DependencyArchives newArchives() {
+		return new DependencyArchives(Arrays.asList(jar), cacheFile, new SystemStreamLog());
+	}
+
+	private void writeJar(String bootstrap, String variables) throws Exception {
+		directory.mkdirs();
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			out.write("Manifest-Version: 1.0\n".getBytes("UTF-8"));
+			out.putNextEntry(new ZipEntry(BOOTSTRAP));
+			out.write(bootstrap.getBytes("UTF-8"));
+			out.putNextEntry(new ZipEntry(VARIABLES));
+			out.write(variables.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String read(Resource resource) throws Exception {
+		InputStream in = resource.getInputStream();
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+}
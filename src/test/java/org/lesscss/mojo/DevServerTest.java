@@ -0,0 +1,127 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DevServerTest {
+
+	private File outputDirectory = new File("target/test-dev-server");
+
+	private DevServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		FileUtils.deleteQuietly(outputDirectory);
+		FileUtils.writeStringToFile(new File(outputDirectory, "print.css"), ".print{}", "UTF-8");
+		server = new DevServer(0, "UTF-8", outputDirectory, new SystemStreamLog());
+	}
+
+	@Test
+	public void testServesPublishedAndWrittenStylesheets() throws Exception {
+		server.publish("css/main.css", ".main{}".getBytes("UTF-8"));
+
+		assertEquals(".main{}", get("/css/main.css"));
+		assertEquals(".print{}", get("/print.css"));
+		assertEquals(404, open("/missing.css").getResponseCode());
+	}
+
+	@Test
+	public void testNotifiesConnectedBrowsers() throws Exception {
+		BufferedReader events = new BufferedReader(new InputStreamReader(open(DevServer.EVENTS).getInputStream(),
+				"UTF-8"));
+		assertEquals(": connected", events.readLine());
+		assertEquals("", events.readLine());
+
+		server.publish("main.css", ".main{}".getBytes("UTF-8"));
+
+		assertEquals("event: css", events.readLine());
+		assertEquals("data: main.css", events.readLine());
+		events.close();
+	}
+
+	@Test(timeout = 30000)
+	public void testBrowserWhichDoesNotReadDoesNotBlockPublishing() throws Exception {
+		HttpURLConnection stalled = open(DevServer.EVENTS);
+		assertEquals(200, stalled.getResponseCode());
+		BufferedReader events = new BufferedReader(new InputStreamReader(open(DevServer.EVENTS).getInputStream(),
+				"UTF-8"));
+		assertEquals(": connected", events.readLine());
+		assertEquals("", events.readLine());
+
+		// far more than the socket buffers of the stalled browser hold
+		String path = StringUtils.repeat("a", 10000) + ".css";
+		for (int i = 0; i < 1000; i++) {
+			server.publish(path, ".a{}".getBytes("UTF-8"));
+		}
+		server.publish("main.css", ".main{}".getBytes("UTF-8"));
+
+		assertEquals("event: css", events.readLine());
+		assertEquals("data: " + path, events.readLine());
+		events.close();
+		stalled.disconnect();
+	}
+
+	@Test
+	public void testServesEachOutputDirectoryBelowItsPrefix() throws Exception {
+		server.stop();
+		FileUtils.writeStringToFile(new File(outputDirectory, "app/print.css"), ".app{}", "UTF-8");
+		FileUtils.writeStringToFile(new File(outputDirectory, "admin/print.css"), ".admin{}", "UTF-8");
+		Map<String, File> outputDirectories = new LinkedHashMap<String, File>();
+		outputDirectories.put("app/", new File(outputDirectory, "app"));
+		outputDirectories.put("admin/", new File(outputDirectory, "admin"));
+		server = new DevServer(0, "UTF-8", outputDirectories, new SystemStreamLog());
+
+		assertEquals(".app{}", get("/app/print.css"));
+		assertEquals(".admin{}", get("/admin/print.css"));
+		assertEquals(404, open("/print.css").getResponseCode());
+	}
+
+	private HttpURLConnection open(String path) throws Exception {
+		return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+	}
+
+	private String get(String path) throws Exception {
+		InputStream in = open(path).getInputStream();
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		FileUtils.deleteQuietly(outputDirectory);
+	}
+}
@@ -0,0 +1,99 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessSource;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LessCompilerPoolTest {
+
+	@Mock
+	private LessCompilerPool.Factory factory;
+
+	@Mock
+	private LessCompiler lessCompiler;
+
+	@Mock
+	private LessCompiler standby;
+
+	@Mock
+	private LessSource lessSource;
+
+	private LessCompilerPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		pool = new LessCompilerPool(factory, 1, 0);
+		when(factory.createLessCompiler(false)).thenReturn(lessCompiler, standby);
+		when(lessCompiler.compile(lessSource)).thenReturn("css");
+		when(standby.compile(lessSource)).thenReturn("standby css");
+	}
+
+	@Test
+	public void testLessCompilerReused() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			assertEquals("css", pool.evaluate(lessSource, false));
+		}
+
+		verify(factory).createLessCompiler(false);
+	}
+
+	@Test
+	public void testLessCompilerRecycledAfterCompilations() throws Exception {
+		pool.setRecycling(2, 0);
+
+		assertEquals("css", pool.evaluate(lessSource, false));
+		assertEquals("css", pool.evaluate(lessSource, false));
+		assertEquals("standby css", pool.evaluate(lessSource, false));
+
+		verify(factory, times(2)).createLessCompiler(false);
+		verify(lessCompiler, times(2)).compile(lessSource);
+		// warmed up before it was handed out
+		verify(standby).compile(anyString());
+	}
+
+	@Test
+	public void testStandbyStartedBeforeTheLimit() throws Exception {
+		pool.setRecycling(3, 0);
+
+		assertEquals("css", pool.evaluate(lessSource, false));
+		assertEquals("css", pool.evaluate(lessSource, false));
+
+		// warming up during the last compilation of the current compiler
+		verify(standby, timeout(5000)).compile(anyString());
+		assertEquals("css", pool.evaluate(lessSource, false));
+		assertEquals("standby css", pool.evaluate(lessSource, false));
+		verify(factory, times(2)).createLessCompiler(false);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+	}
+}
@@ -40,7 +40,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
-@PrepareForTest(ListMojo.class)
+@PrepareForTest({ ListMojo.class, AbstractLessCssMojo.class })
 @RunWith(PowerMockRunner.class)
 public class ListMojoTest extends AbstractMojoTestCase {
 
@@ -93,6 +93,8 @@ public class ListMojoTest extends AbstractMojoTestCase {
 		mojo.setLog(log);
 
 		setVariableValueToObject(mojo, "buildContext", buildContext);
+		// scans with the build context, as an incremental build does until the imports are indexed
+		when(buildContext.isIncremental()).thenReturn(true);
 		setVariableValueToObject(mojo, "sourceDirectory", sourceDirectory);
 		setVariableValueToObject(mojo, "includes", includes);
 		setVariableValueToObject(mojo, "excludes", excludes);
@@ -143,6 +145,88 @@ public class ListMojoTest extends AbstractMojoTestCase {
 		inOrder.verifyNoMoreInteractions();
 	}
 
+	@SuppressWarnings("serial")
+	@Test
+	public void testExecutionSharedImportsListedOnce() throws Exception {
+		files = new String[] { "less1.less", "less2.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(LessSource.class).withArguments(new File(sourceDirectory, "less1.less")).thenReturn(lessSource1);
+		when(lessSource1.getImports()).thenReturn(new LinkedHashMap<String, LessSource>() {
+			{
+				put("less1import1.less", lessSource1import1);
+				put("less1import2.less", lessSource1import2);
+			}
+		});
+		when(lessSource1import1.getImports()).thenReturn(new LinkedHashMap<String, LessSource>() {
+			{
+				put("import2/less1import2a.less", lessSource1import2a);
+			}
+		});
+		when(lessSource1import2.getImports()).thenReturn(new LinkedHashMap<String, LessSource>() {
+			{
+				put("import2/less1import2a.less", lessSource1import2b);
+			}
+		});
+		when(lessSource1import2a.getImports()).thenReturn(new LinkedHashMap<String, LessSource>() {
+			{
+				put("less1import2b.less", lessSource1import3);
+			}
+		});
+
+		whenNew(LessSource.class).withArguments(new File(sourceDirectory, "less2.less")).thenReturn(lessSource2);
+		when(lessSource2.getImports()).thenReturn(new LinkedHashMap<String, LessSource>() {
+			{
+				put("less1import1.less", lessSource1import1a);
+			}
+		});
+
+		mojo.execute();
+
+		InOrder inOrder = inOrder(log);
+		inOrder.verify(log).info("The following LESS sources have been resolved:");
+		inOrder.verify(log).info("less1.less");
+		inOrder.verify(log).info("|-- less1import1.less");
+		inOrder.verify(log).info("|   `-- import2/less1import2a.less");
+		inOrder.verify(log).info("|   |   `-- less1import2b.less");
+		inOrder.verify(log).info("`-- less1import2.less");
+		inOrder.verify(log).info("|   `-- import2/less1import2a.less (see above)");
+		inOrder.verify(log).info("less2.less");
+		inOrder.verify(log).info("`-- less1import1.less (see above)");
+		inOrder.verifyNoMoreInteractions();
+	}
+
+	@SuppressWarnings("serial")
+	@Test
+	public void testExecutionJsonFormat() throws Exception {
+		setVariableValueToObject(mojo, "format", "json");
+		files = new String[] { "less1.less" };
+
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(files);
+
+		whenNew(LessSource.class).withArguments(new File(sourceDirectory, "less1.less")).thenReturn(lessSource1);
+		when(lessSource1.getImports()).thenReturn(new LinkedHashMap<String, LessSource>() {
+			{
+				put("import2/less1import2a.less", lessSource1import2a);
+			}
+		});
+		when(lessSource1import2a.getImports()).thenReturn(new LinkedHashMap<String, LessSource>() {
+			{
+				put("../less1import1.less", lessSource1import1);
+			}
+		});
+
+		mojo.execute();
+
+		verify(log).info("{\n  \"roots\": [\"less1.less\"],\n  \"imports\": {"
+				+ "\n    \"less1.less\": [\"import2/less1import2a.less\"],"
+				+ "\n    \"import2/less1import2a.less\": [\"less1import1.less\"],"
+				+ "\n    \"less1import1.less\": []\n  }\n}");
+	}
+
 	@Test
 	public void testExecutionIncludedFilesEmpty() throws Exception {
 		files = new String[] {};
@@ -0,0 +1,144 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.Scanner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+@PrepareForTest({ ProfileMojo.class, AbstractLessCompilerMojo.class, AbstractLessCssMojo.class })
+@RunWith(PowerMockRunner.class)
+public class ProfileMojoTest extends AbstractMojoTestCase {
+
+	private ProfileMojo mojo;
+
+	private File sourceDirectory = new File("./source");
+
+	private File reportFile;
+
+	private String[] includes = new String[] { "include" };
+
+	private String[] excludes = new String[] { "exclude" };
+
+	@Mock
+	private Log log;
+
+	@Mock
+	private BuildContext buildContext;
+
+	@Mock
+	private Scanner scanner;
+
+	@Mock
+	private LessCompiler lessCompiler;
+
+	@Mock
+	private LessSource lessSource1;
+
+	@Mock
+	private LessSource lessSource1import1;
+
+	@Before
+	public void setUp() throws Exception {
+		mojo = new ProfileMojo();
+		mojo.setLog(log);
+
+		reportFile = File.createTempFile("lesscss-profile", ".json");
+
+		setVariableValueToObject(mojo, "buildContext", buildContext);
+		// scans with the build context, as an incremental build does until the imports are indexed
+		when(buildContext.isIncremental()).thenReturn(true);
+		setVariableValueToObject(mojo, "sourceDirectory", sourceDirectory);
+		setVariableValueToObject(mojo, "includes", includes);
+		setVariableValueToObject(mojo, "excludes", excludes);
+		setVariableValueToObject(mojo, "reportFile", reportFile);
+	}
+
+	@SuppressWarnings("serial")
+	@Test
+	public void testExecution() throws Exception {
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(new String[] { "less1.less" });
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+		whenNew(LessSource.class).withArguments(new File(sourceDirectory, "less1.less")).thenReturn(lessSource1);
+		when(lessSource1.getImports()).thenReturn(new LinkedHashMap<String, LessSource>() {
+			{
+				put("less1import1.less", lessSource1import1);
+			}
+		});
+
+		mojo.execute();
+
+		verify(lessCompiler, times(4)).compile(lessSource1);
+		verify(log).info("Hot LESS sources (warm, cold, files, bytes):");
+		verify(log).info(startsWith("  1. less1.less  "));
+		verify(log).info("Hot imports (estimated by size, fan-in, bytes):");
+		verify(log).info(startsWith("  1. less1import1.less  "));
+
+		String report = FileUtils.readFileToString(reportFile, "UTF-8");
+		assertTrue(report.contains("{\"path\": \"less1.less\""));
+		assertTrue(report.contains("{\"path\": \"less1import1.less\""));
+	}
+
+	@Test(expected = MojoExecutionException.class)
+	public void testExecutionLessException() throws Exception {
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(new String[] { "less1.less" });
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+		whenNew(LessSource.class).withArguments(new File(sourceDirectory, "less1.less")).thenReturn(lessSource1);
+		when(lessCompiler.compile(lessSource1)).thenThrow(new LessException(new Throwable()));
+
+		mojo.execute();
+	}
+
+	@Test
+	public void testExecutionIncludedFilesEmpty() throws Exception {
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(new String[] {});
+
+		mojo.execute();
+
+		verify(log).info("Nothing to profile - no LESS sources found");
+	}
+
+	@After
+	public void tearDown() {
+		reportFile.delete();
+	}
+}
@@ -0,0 +1,83 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScanCacheTest {
+
+	private static final String KEY = "less:[**/*.less]:[]";
+
+	private File directory = new File("target/test-scan-cache");
+
+	private File sourceDirectory = new File(directory, "less");
+
+	private File cacheFile = new File(directory, "cache/scan.properties");
+
+	@Before
+	public void setUp() throws Exception {
+		FileUtils.deleteQuietly(directory);
+		FileUtils.writeStringToFile(new File(sourceDirectory, "main.less"), "", "UTF-8");
+		FileUtils.writeStringToFile(new File(sourceDirectory, "pages/home.less"), "", "UTF-8");
+		long lastModified = System.currentTimeMillis() - 60000;
+		sourceDirectory.setLastModified(lastModified);
+		new File(sourceDirectory, "pages").setLastModified(lastModified);
+	}
+
+	@Test
+	public void testScanIsReusedUntilADirectoryChanges() throws Exception {
+		scan();
+
+		ScanCache cache = new ScanCache(cacheFile);
+		assertEquals(Arrays.asList("main.less", "pages" + File.separator + "home.less"),
+				Arrays.asList(cache.get(sourceDirectory, KEY)));
+		assertNull(cache.get(sourceDirectory, "other"));
+
+		FileUtils.writeStringToFile(new File(sourceDirectory, "pages/about.less"), "", "UTF-8");
+		assertNull(cache.get(sourceDirectory, KEY));
+	}
+
+	@Test
+	public void testRecentlyModifiedDirectoriesAreNotCached() throws Exception {
+		new File(sourceDirectory, "pages").setLastModified(System.currentTimeMillis());
+
+		scan();
+
+		assertNull(new ScanCache(cacheFile).get(sourceDirectory, KEY));
+	}
+
+	private void scan() throws Exception {
+		long scanned = System.currentTimeMillis();
+		SourceScanner scanner = new SourceScanner(sourceDirectory, new String[] { "**/*.less" }, null);
+		String[] files = scanner.scan();
+		ScanCache cache = new ScanCache(cacheFile);
+		cache.put(KEY, scanned, scanner.getDirectories(), files);
+		cache.save();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+}
@@ -0,0 +1,84 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
+import org.junit.Test;
+
+public class ShardsTest {
+
+	private String[] files = new String[] { "a.less", "b.less", "c.less", "d.less", "e.less", "pages/f.less",
+			"pages/g.less" };
+
+	@Test
+	public void testShardsByHashCoverEveryFileOnce() {
+		Set<String> all = new HashSet<String>();
+		int count = 0;
+		for (int i = 0; i < 3; i++) {
+			String[] shard = Shards.byHash(files, i, 3);
+			all.addAll(Arrays.asList(shard));
+			count += shard.length;
+		}
+		assertEquals(new HashSet<String>(Arrays.asList(files)), all);
+		assertEquals(files.length, count);
+	}
+
+	@Test
+	public void testShardsByCostBalanceRecordedDurations() throws Exception {
+		CompileHistory history = new CompileHistory(null);
+		history.put("a.less", 900);
+		history.put("b.less", 500);
+		history.put("c.less", 400);
+
+		String[] shard0 = Shards.byCost(files, 0, 2, new File("./source"), history);
+		String[] shard1 = Shards.byCost(files, 1, 2, new File("./source"), history);
+
+		assertEquals("a.less", shard0[0]);
+		assertTrue(Arrays.asList(shard1).containsAll(Arrays.asList("b.less", "c.less")));
+		assertEquals(files.length, shard0.length + shard1.length);
+		assertArrayEquals(shard0, Shards.byCost(files, 0, 2, new File("./source"), history));
+	}
+
+	@Test
+	public void testShardsByCostWithoutDurationsBalanceSizes() throws Exception {
+		File sourceDirectory = new File("target/test-shards");
+		try {
+			for (int i = 0; i < files.length; i++) {
+				// a.less is the largest
+				FileUtils.writeStringToFile(new File(sourceDirectory, files[i]),
+						StringUtils.repeat(".a { color: red; }\n", (files.length - i) * 100), "UTF-8");
+			}
+
+			String[] shard0 = Shards.byCost(files, 0, 2, sourceDirectory, null);
+			String[] shard1 = Shards.byCost(files, 1, 2, sourceDirectory, null);
+
+			assertEquals("a.less", shard0[0]);
+			assertEquals("b.less", shard1[0]);
+			assertEquals(files.length, shard0.length + shard1.length);
+		} finally {
+			FileUtils.deleteQuietly(sourceDirectory);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SourceScannerTest {
+
+	private File directory = new File("target/test-source-scanner");
+
+	@Before
+	public void setUp() throws Exception {
+		FileUtils.deleteQuietly(directory);
+		for (String path : new String[] { "main.less", "print.less", "readme.txt", "pages/home.less",
+				"pages/about.less", "pages/mixins/grid.less", "vendor/bootstrap.less", "node_modules/lib/lib.less" }) {
+			FileUtils.writeStringToFile(new File(directory, path), "", "UTF-8");
+		}
+	}
+
+	@Test
+	public void testScanMatchesDirectoryScanner() {
+		assertScan(new String[] { "**/*.less" }, new String[] { "vendor/", "**/mixins/**" });
+		assertScan(new String[] { "*.less" }, new String[0]);
+		assertScan(null, new String[] { "**/*.txt" });
+	}
+
+	@Test
+	public void testScanPrunesExcludedDirectories() {
+		SourceScanner scanner = new SourceScanner(directory, new String[] { "**/*.less" }, new String[] {
+				"**/node_modules/**", "vendor/" });
+
+		assertEquals(Arrays.asList("main.less", "pages" + File.separator + "about.less", "pages" + File.separator
+				+ "home.less", "pages" + File.separator + "mixins" + File.separator + "grid.less", "print.less"),
+				Arrays.asList(scanner.scan()));
+		assertTrue(scanner.getDirectories().containsKey("pages" + File.separator + "mixins" + File.separator));
+		assertFalse(scanner.getDirectories().containsKey("node_modules" + File.separator));
+		assertFalse(scanner.getDirectories().containsKey("vendor" + File.separator));
+	}
+
+	@Test
+	public void testScanSkipsDirectoriesWhichCannotHoldIncludedFiles() {
+		SourceScanner scanner = new SourceScanner(directory, new String[] { "pages/*.less" }, null);
+
+		assertEquals(Arrays.asList("pages" + File.separator + "about.less", "pages" + File.separator + "home.less"),
+				Arrays.asList(scanner.scan()));
+		assertFalse(scanner.getDirectories().containsKey("vendor" + File.separator));
+	}
+
+	private void assertScan(String[] includes, String[] excludes) {
+		DirectoryScanner scanner = new DirectoryScanner();
+		scanner.setBasedir(directory);
+		scanner.setIncludes(includes);
+		scanner.setExcludes(excludes);
+		scanner.scan();
+		String[] expected = scanner.getIncludedFiles();
+		Arrays.sort(expected);
+
+		String[] actual = new SourceScanner(directory, includes, excludes).scan();
+		Arrays.sort(actual);
+
+		assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteQuietly(directory);
+	}
+}
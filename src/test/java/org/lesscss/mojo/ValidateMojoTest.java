@@ -0,0 +1,149 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.codehaus.plexus.util.Scanner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.lesscss.LessCompiler;
+import org.lesscss.LessException;
+import org.lesscss.LessSource;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+@PrepareForTest({ ValidateMojo.class, AbstractLessCompilerMojo.class, AbstractLessCssMojo.class })
+@RunWith(PowerMockRunner.class)
+public class ValidateMojoTest extends AbstractMojoTestCase {
+
+	private ValidateMojo mojo;
+
+	private File sourceDirectory = new File("./source");
+
+	private String[] includes = new String[] { "include" };
+
+	private String[] excludes = new String[] { "exclude" };
+
+	@Mock
+	private Log log;
+
+	@Mock
+	private BuildContext buildContext;
+
+	@Mock
+	private Scanner scanner;
+
+	@Mock
+	private LessCompiler lessCompiler;
+
+	@Mock
+	private File input1;
+
+	@Mock
+	private File input2;
+
+	@Mock
+	private File input3;
+
+	@Mock
+	private LessSource lessSource1;
+
+	@Mock
+	private LessSource lessSource2;
+
+	@Before
+	public void setUp() throws Exception {
+		mojo = new ValidateMojo();
+		mojo.setLog(log);
+
+		setVariableValueToObject(mojo, "buildContext", buildContext);
+		// scans with the build context, as an incremental build does until the imports are indexed
+		when(buildContext.isIncremental()).thenReturn(true);
+		setVariableValueToObject(mojo, "sourceDirectory", sourceDirectory);
+		setVariableValueToObject(mojo, "includes", includes);
+		setVariableValueToObject(mojo, "excludes", excludes);
+	}
+
+	@Test
+	public void testExecution() throws Exception {
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(new String[] { "less1.less" });
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+		whenNew(File.class).withArguments(sourceDirectory, "less1.less").thenReturn(input1);
+		whenNew(LessSource.class).withArguments(input1).thenReturn(lessSource1);
+
+		mojo.execute();
+
+		verify(buildContext).removeMessages(input1);
+		verify(lessCompiler).compile(lessSource1);
+		verify(log).info(startsWith("Validated 1 LESS sources in "));
+	}
+
+	@Test
+	public void testExecutionReportsAllErrors() throws Exception {
+		when(buildContext.newScanner(sourceDirectory, true)).thenReturn(scanner);
+		when(scanner.getIncludedFiles()).thenReturn(new String[] { "less1.less", "less2.less", "less3.less" });
+
+		whenNew(LessCompiler.class).withNoArguments().thenReturn(lessCompiler);
+		whenNew(File.class).withArguments(sourceDirectory, "less1.less").thenReturn(input1);
+		whenNew(File.class).withArguments(sourceDirectory, "less2.less").thenReturn(input2);
+		whenNew(File.class).withArguments(sourceDirectory, "less3.less").thenReturn(input3);
+		whenNew(LessSource.class).withArguments(input1).thenReturn(lessSource1);
+		whenNew(LessSource.class).withArguments(input2).thenReturn(lessSource2);
+		whenNew(LessSource.class).withArguments(input3).thenThrow(new IOException("less3.less not found"));
+
+		LessException lessException = new LessException(
+				"NameError: variable @color is undefined in less2.less on line 3, column 10:", null);
+		when(lessCompiler.compile(lessSource2)).thenThrow(lessException);
+
+		try {
+			mojo.execute();
+			fail("MojoExecutionException expected");
+		} catch (MojoExecutionException e) {
+			assertEquals("2 of 3 LESS sources are invalid", e.getMessage());
+		}
+
+		verify(lessCompiler).compile(lessSource1);
+		verify(lessCompiler).compile(lessSource2);
+		verify(buildContext).addMessage(same(input2), eq(3), eq(10),
+				eq("NameError: variable @color is undefined in less2.less on line 3, column 10:"),
+				eq(BuildContext.SEVERITY_ERROR), same(lessException));
+		verify(buildContext).addMessage(same(input3), eq(0), eq(0), eq("less3.less not found"),
+				eq(BuildContext.SEVERITY_ERROR), any(IOException.class));
+		verify(log).error("less2.less:3:10 NameError: variable @color is undefined in less2.less on line 3, column 10:");
+	}
+
+	@After
+	public void tearDown() {
+	}
+}
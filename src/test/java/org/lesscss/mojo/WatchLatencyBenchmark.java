@@ -0,0 +1,207 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.codehaus.plexus.util.StringUtils;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+/**
+ * Measures the latency of watch mode from saving a LESS source to its CSS stylesheet being written, and writes the
+ * percentiles per backend, tree size and burst size to <code>target/benchmark/watch-latency.txt</code>. A burst saves
+ * several LESS sources in a row; its latency lasts until all of their stylesheets are written. The name keeps it out
+ * of the regular test run, run it with:
+ *
+ * <pre>
+ * mvn test -Dtest=WatchLatencyBenchmark -Dbenchmark.roots=50,200 -Dbenchmark.bursts=1,5 -Dbenchmark.edits=50
+ *     -Dbenchmark.watchInterval=100 -Dbenchmark.node=/usr/bin/node
+ * </pre>
+ *
+ * The edited LESS sources are chosen by a fixed seed and the first edits of each scenario are not measured, so runs
+ * on the same machine are comparable. File systems with a modification time resolution of a second or more cannot
+ * be measured.
+ */
+public class WatchLatencyBenchmark {
+
+	private static final long SEED = 42;
+
+	/** The edits of each scenario which warm up the compilers and are not measured. */
+	private static final int WARM_UP_EDITS = 5;
+
+	/** The longest a single burst may take before the benchmark fails. */
+	private static final long TIMEOUT_MILLIS = 60000;
+
+	private File directory = new File("target/benchmark");
+
+	@Test
+	public void testWatchLatency() throws Exception {
+		int edits = Integer.getInteger("benchmark.edits", 50).intValue();
+		int watchInterval = Integer.getInteger("benchmark.watchInterval", 100).intValue();
+		String node = System.getProperty("benchmark.node");
+
+		List<String> backends = new ArrayList<String>();
+		backends.add("rhino");
+		if (node != null) {
+			backends.add("node");
+		}
+
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%d measured edits per scenario, watch interval %d ms%n", Integer.valueOf(edits),
+				Integer.valueOf(watchInterval)));
+		table.append(String.format("%-8s %8s %6s %8s %8s %8s %8s%n", "backend", "roots", "burst", "p50 ms", "p95 ms",
+				"p99 ms", "max ms"));
+		for (String backend : backends) {
+			for (String roots : StringUtils.split(System.getProperty("benchmark.roots", "50,200"), ",")) {
+				for (String burst : StringUtils.split(System.getProperty("benchmark.bursts", "1,5"), ",")) {
+					List<Long> latencies = measure(Integer.parseInt(roots.trim()), Integer.parseInt(burst.trim()),
+							edits, watchInterval, "node".equals(backend) ? node : null);
+					Collections.sort(latencies);
+					table.append(String.format("%-8s %8s %6s %8d %8d %8d %8d%n", backend, roots.trim(), burst.trim(),
+							percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+							latencies.get(latencies.size() - 1)));
+				}
+			}
+		}
+
+		System.out.print(table);
+		FileUtils.writeStringToFile(new File(directory, "watch-latency.txt"), table.toString(), "UTF-8");
+	}
+
+	private List<Long> measure(int roots, int burst, int edits, int watchInterval, String nodeExecutable)
+			throws Exception {
+		File sourceDirectory = new File(directory, "watch-less");
+		File outputDirectory = new File(directory, "watch-css");
+		File cacheDirectory = new File(directory, "watch-cache");
+		new BenchmarkCorpus(roots, 3, 20, 50).generate(sourceDirectory);
+		FileUtils.deleteQuietly(outputDirectory);
+		FileUtils.deleteQuietly(cacheDirectory);
+
+		final CompileMojo mojo = new CompileMojo();
+		mojo.setLog(new SystemStreamLog() {
+			@Override
+			public void info(CharSequence content) {
+				// one line per LESS source would distort the measurement
+			}
+		});
+		set(mojo, "buildContext", new DefaultBuildContext());
+		set(mojo, "sourceDirectory", sourceDirectory);
+		set(mojo, "outputDirectory", outputDirectory);
+		set(mojo, "cacheDirectory", cacheDirectory);
+		set(mojo, "includes", new String[] { "pages/*.less" });
+		set(mojo, "excludes", new String[0]);
+		set(mojo, "nodeExecutable", nodeExecutable);
+		set(mojo, "watch", Boolean.TRUE);
+		set(mojo, "watchInterval", Integer.valueOf(watchInterval));
+
+		final Exception[] failure = new Exception[1];
+		Thread watcher = new Thread("watch-latency-benchmark") {
+			@Override
+			public void run() {
+				try {
+					mojo.execute();
+				} catch (MojoExecutionException e) {
+					failure[0] = e;
+				}
+			}
+		};
+		watcher.start();
+		List<Long> latencies = new ArrayList<Long>();
+		try {
+			// the initial build compiles all LESS sources
+			for (int root = 0; root < roots; root++) {
+				awaitOutput(new File(outputDirectory, "pages/page-" + root + ".css"), ".page-" + root + "-0", failure);
+			}
+
+			Random random = new Random(SEED);
+			for (int edit = 0; edit < WARM_UP_EDITS + edits; edit++) {
+				List<Integer> edited = new ArrayList<Integer>();
+				while (edited.size() < Math.min(burst, roots)) {
+					Integer root = Integer.valueOf(random.nextInt(roots));
+					if (!edited.contains(root)) {
+						edited.add(root);
+					}
+				}
+				String marker = ".edit-" + edit;
+				for (Integer root : edited) {
+					// a LESS source saved within the modification time of its stylesheet looks up-to-date
+					File output = new File(outputDirectory, "pages/page-" + root + ".css");
+					while (System.currentTimeMillis() <= output.lastModified()) {
+						Thread.sleep(1);
+					}
+				}
+				long started = System.nanoTime();
+				for (Integer root : edited) {
+					File source = new File(sourceDirectory, "pages/page-" + root + ".less");
+					FileUtils.writeStringToFile(source, FileUtils.readFileToString(source, "UTF-8") + marker
+							+ " { color: red; }\n", "UTF-8");
+				}
+				for (Integer root : edited) {
+					awaitOutput(new File(outputDirectory, "pages/page-" + root + ".css"), marker, failure);
+				}
+				if (edit >= WARM_UP_EDITS) {
+					latencies.add(Long.valueOf((System.nanoTime() - started) / 1000000L));
+				}
+			}
+		} finally {
+			set(mojo, "watch", Boolean.FALSE);
+			watcher.interrupt();
+			watcher.join();
+		}
+		return latencies;
+	}
+
+	/**
+	 * Waits until the CSS stylesheet contains the marker.
+	 */
+	private static void awaitOutput(File output, String marker, Exception[] failure) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		long lastModified = -1;
+		while (true) {
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			long modified = output.lastModified();
+			if (modified != lastModified) {
+				lastModified = modified;
+				if (modified > 0 && FileUtils.readFileToString(output, "UTF-8").contains(marker)) {
+					return;
+				}
+			}
+			if (System.currentTimeMillis() > deadline) {
+				throw new AssertionError("No " + marker + " in " + output + " after " + TIMEOUT_MILLIS + " ms");
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	private static Long percentile(List<Long> sorted, int percent) {
+		int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(0, index));
+	}
+
+	private static void set(Object object, String name, Object value) throws IllegalAccessException {
+		ReflectionUtils.setVariableValueInObject(object, name, value);
+	}
+}
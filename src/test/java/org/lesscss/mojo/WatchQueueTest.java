@@ -0,0 +1,58 @@
+/* Copyright 2011-2012 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lesscss.mojo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class WatchQueueTest {
+
+	@Test
+	public void testDirectImportersOfLastEditFirst() {
+		WatchQueue<String> queue = new WatchQueue<String>();
+		queue.offer("a.less", "a", 300, "a.less", Collections.<String> emptyList());
+		queue.offer("b.less", "b", 500, "shared/vars.less", Arrays.asList("shared/mixins.less"));
+		queue.offer("c.less", "c", 500, "shared/vars.less", Arrays.asList("shared/vars.less"));
+		queue.offer("d.less", "d", 400, "d.less", Collections.<String> emptyList());
+
+		assertEquals("c", queue.poll());
+		assertEquals("b", queue.poll());
+		assertEquals("d", queue.poll());
+		assertEquals("a", queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testNewerChangeSupersedesQueuedEntry() {
+		WatchQueue<String> queue = new WatchQueue<String>();
+		queue.offer("a.less", "a1", 100, "a.less", Collections.<String> emptyList());
+		queue.offer("b.less", "b", 200, "b.less", Collections.<String> emptyList());
+		assertTrue(queue.isQueued("a.less", 100));
+		assertFalse(queue.isQueued("a.less", 300));
+
+		queue.offer("a.less", "a2", 300, "a.less", Collections.<String> emptyList());
+
+		assertEquals("a2", queue.poll());
+		assertEquals("b", queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+}